@@ -4,106 +4,164 @@ Note: The test object, page objects and data object should be saved in separate
 
 /* SuccesfulPurchaseOfItems.java tests script */
 package com.seleniumframework.tests;
+import org.testng.SkipException;
 import org.testng.annotations.Test;
 import com.seleniumframework.core.Browser;
+import com.seleniumframework.core.DataTable;
 import com.seleniumframework.core.Log;
+import com.seleniumframework.core.PageTiming;
+import com.seleniumframework.dataobjects.InsurantDataInfo;
+import com.seleniumframework.dataobjects.ProductDataInfo;
+import com.seleniumframework.dataobjects.SendQuoteInfo;
 import com.seleniumframework.dataobjects.TestData;
+import com.seleniumframework.dataobjects.VehicleDataInfo;
 import com.seleniumframework.pageobjects.siteHome;
 import com.seleniumframework.pageobjects.AutomobileInsurancePage;
 
 // Inherit Browser.java class
 public class SuccesfulPurchaseOfItems extends Browser
 {
-  @Test
-  public void SuccessfulPurchaseOfItems() throws Exception
+  @Test(dataProvider = "purchaseRows", dataProviderClass = TestData.Rows.class)
+  public void SuccessfulPurchaseOfItems(DataTable.Row row) throws Exception
   {
-    Log.setStoryName("Purchase Vehicle");
+    TestData.Rows.useRow(row);
+    Log.setStoryName("Purchase Vehicle - row " + row);
+    // Step 10 opens the price section
+    budget("10. Click Next button", PageTiming.Metric.INTERACTIVE, 800);
 
-    // 1. Navigate to URL using Browser class driver
-    getDriver().get(TestData.Urls.siteUrl());
+    step("1. Navigate to URL using Browser class driver");
+    open(TestData.Urls.siteUrl());
 
     // Run Test scripts by calling base page element methods and TestData base test values
 
-    // 2. Verify vehicle navigation links 
-    siteHome.navSection.verifyAutomobileNavLink();
-    siteHome.navSection.verifyTruckNavLink();
-    siteHome.navSection.verifyMotorcycleNavLink();
-    siteHome.navSection.verifyCamperNavLink();
+    step("2. Verify vehicle navigation links");
+    siteHome.navSection.verifyNavLinks();
 
-    // 3. Click the Automobile hyperlink
+    step("3. Click the Automobile hyperlink");
     siteHome.navSection.clickAutomobileNavLink();
 
-    // 4. Verify Automobile Insurance nav links
-    AutomobileInsurancePage.navSection.vrfyAutoInsuranceLbl();
-    AutomobileInsurancePage.navSection.vrfyVehicleDataNavLink();
-    AutomobileInsurancePage.navSection.vrfyInsurantDataNavLink();
-    AutomobileInsurancePage.navSection.vrfyProductDataNavLink();
-    AutomobileInsurancePage.navSection.vrfyPriceOptionNavLink();
-    AutomobileInsurancePage.navSection.vrfySendQuoteNavLink();
-
-    // 5. Populate Vehicle Data fields
-    AutomobileInsurancePage.vehicleDataSection.selMake(TestData.PurchaseInfo.VehicleDataInfo.Make());
-    AutomobileInsurancePage.vehicleDataSection.setEnginePerformance(TestData.PurchaseInfo.VehicleDataInfo.EnginePerformance());
-    AutomobileInsurancePage.vehicleDataSection.setDateOfManufacture(TestData.PurchaseInfo.VehicleDataInfo.ManufactureDate());
-    AutomobileInsurancePage.vehicleDataSection.selNumOfSeats(TestData.PurchaseInfo.VehicleDataInfo.SeatNumbers());
-    AutomobileInsurancePage.vehicleDataSection.selFuelType(TestData.PurchaseInfo.VehicleDataInfo.FuelType());
-    AutomobileInsurancePage.vehicleDataSection.setListPrice(TestData.PurchaseInfo.VehicleDataInfo.ListPrice());
-    AutomobileInsurancePage.vehicleDataSection.setLicensePlateNumber(TestData.PurchaseInfo.VehicleDataInfo.LicensePlateNumber());
-    AutomobileInsurancePage.vehicleDataSection.setAnnualMileage(TestData.PurchaseInfo.VehicleDataInfo.AnnualMileage());
-
-    // 6. Click Next button
+    step("4. Verify Automobile Insurance nav links");
+    AutomobileInsurancePage.navSection.vrfyNavLinks();
+
+    step("5. Populate Vehicle Data fields");
+    AutomobileInsurancePage.vehicleDataSection.fill(VehicleDataInfo.from(row));
+
+    step("6. Click Next button");
     AutomobileInsurancePage.vehicleDataSection.clickNext();
 
-    // 7. Populate Insurant Data fields
-    AutomobileInsurancePage.insurantDataSection.setFirstName(TestData.PurchaseInfo.InsurantDataInfo.FirstName());
-    AutomobileInsurancePage.insurantDataSection.setLastName(TestData.PurchaseInfo.InsurantDataInfo.LastName());
-    AutomobileInsurancePage.insurantDataSection.setDateOfBirth(TestData.PurchaseInfo.InsurantDataInfo.DateOfBirth());
-    AutomobileInsurancePage.insurantDataSection.selGender();
-    AutomobileInsurancePage.insurantDataSection.setStreetAddress(TestData.PurchaseInfo.InsurantDataInfo.StreetAddress());
-    AutomobileInsurancePage.insurantDataSection.selCountry(TestData.PurchaseInfo.InsurantDataInfo.Country());
-    AutomobileInsurancePage.insurantDataSection.setZipCode(TestData.PurchaseInfo.InsurantDataInfo.ZipCode());
-    AutomobileInsurancePage.insurantDataSection.setCity(TestData.PurchaseInfo.InsurantDataInfo.City());
-    AutomobileInsurancePage.insurantDataSection.selOccupation(TestData.PurchaseInfo.InsurantDataInfo.Occupation());
-    AutomobileInsurancePage.insurantDataSection.selHobbySpeeding();
-    AutomobileInsurancePage.insurantDataSection.selHobbySkydiving();
-
-    // 8. Click Next button
+    step("7. Populate Insurant Data fields");
+    AutomobileInsurancePage.insurantDataSection.fill(InsurantDataInfo.from(row));
+
+    step("8. Click Next button");
     AutomobileInsurancePage.insurantDataSection.clickNextProductBtn();
 
-    // 9. Populate Product Data Fields
-    AutomobileInsurancePage.productDataSection.setStartDate(TestData.PurchaseInfo.ProductDataInfo.StartDate());
-    AutomobileInsurancePage.productDataSection.selInsuranceSum(TestData.PurchaseInfo.ProductDataInfo.InsuranceSum());
-    AutomobileInsurancePage.productDataSection.selMeritRating(TestData.PurchaseInfo.ProductDataInfo.MeritRating());
-    AutomobileInsurancePage.productDataSection.selDamageInsurance(TestData.PurchaseInfo.ProductDataInfo.DamageInsurance());
-    AutomobileInsurancePage.productDataSection.selOptionalProducts();
-    AutomobileInsurancePage.productDataSection.selCourtesyCar(TestData.PurchaseInfo.ProductDataInfo.CourtesyCar());
+    step("9. Populate Product Data Fields");
+    AutomobileInsurancePage.productDataSection.fill(ProductDataInfo.from(row));
 
-    // 10. Click Next button
+    step("10. Click Next button");
     AutomobileInsurancePage.productDataSection.clickNextPriceBtn();
+    saveCheckpoint("after productDataSection");
+
+    selectPriceAndSendQuote();
+  }
+
+  // Starts on the price page from the checkpoint left by SuccessfulPurchaseOfItems
+  @Test(dependsOnMethods = "SuccessfulPurchaseOfItems")
+  public void SendQuoteFromCheckpoint() throws Exception
+  {
+    Log.setStoryName("Send Quote from checkpoint");
+    if (!restoreCheckpoint("after productDataSection"))
+    {
+      throw new SkipException("No 'after productDataSection' checkpoint was saved in this run");
+    }
+    AutomobileInsurancePage.navSection.clickPriceOptionNavLink();
+
+    selectPriceAndSendQuote();
+  }
 
-    // 11. Select Ultimate Price radio
+  private void selectPriceAndSendQuote() throws Exception
+  {
+    step("11. Select Ultimate Price radio");
     AutomobileInsurancePage.priceSection.selUltimate();
 
-    // 12. Click Next button
+    step("12. Click Next button");
     AutomobileInsurancePage.priceSection.clickNextQuoteBtn();
 
-    // 13. Populate Send Quote data fields
-    AutomobileInsurancePage.sendQuoteSection.setEmail(TestData.PurchaseInfo.SendQuoteInfo.Email());
-    AutomobileInsurancePage.sendQuoteSection.setUsername(TestData.PurchaseInfo.SendQuoteInfo.Username());
-    AutomobileInsurancePage.sendQuoteSection.setPassword(TestData.PurchaseInfo.SendQuoteInfo.Password());
-    AutomobileInsurancePage.sendQuoteSection.setConfirmPassword(TestData.PurchaseInfo.SendQuoteInfo.ConfirmPassword());
+    step("13. Populate Send Quote data fields");
+    AutomobileInsurancePage.sendQuoteSection.fill(SendQuoteInfo.from(TestData.Rows.row()));
 
-    // 14. Click Send button
+    step("14. Click Send button");
     AutomobileInsurancePage.sendQuoteSection.clickSendBtn();
 
-    // 15. Verify send email success
+    step("15. Verify send email success");
     AutomobileInsurancePage.emailSuccess.vrfyEmailSuccessLbl();
 
-    // 16. Click Yes button
+    step("16. Click Yes button");
     AutomobileInsurancePage.emailSuccess.clickYes();
   }
 }
 
+/* PurchaseLoad.java tests script */
+package com.seleniumframework.tests;
+import com.seleniumframework.core.Browser;
+import com.seleniumframework.core.DataTable;
+import com.seleniumframework.core.LoadGenerator;
+
+// Runs the purchase flow as a load test, each virtual user cycling through the data rows:
+//   java -Dload.users=20 -Dload.rampUpSeconds=30 -Dload.durationSeconds=300 PurchaseLoad
+// Defaults to the fast headless profile against the recorded site, so record it once with -Dsite.mode=RECORD.
+// Results are written to target/load.json.
+public class PurchaseLoad
+{
+  public static void main(String[] args) throws Exception
+  {
+    setDefault("browser.profile", "fast");
+    setDefault("site.mode", "REPLAY");
+    setDefault("browser.pool.size", System.getProperty("load.users", "10"));
+
+    final int rows = DataTable.getRowCount();
+    if (rows == 0)
+    {
+      throw new IllegalStateException("The data sheet has no data rows to run the load with");
+    }
+    final SuccesfulPurchaseOfItems flow = new SuccesfulPurchaseOfItems();
+    try
+    {
+      new LoadGenerator("Purchase Vehicle").run((user, iteration) ->
+      {
+        boolean passed = false;
+        AssertionError overBudget;
+        try
+        {
+          flow.SuccessfulPurchaseOfItems(DataTable.getRow(1 + (int) ((user + iteration) % rows)));
+          passed = true;
+        }
+        finally
+        {
+          overBudget = Browser.releaseDriver(passed);
+        }
+        // The last step only ends on release, going over its budget fails the iteration
+        if (overBudget != null)
+        {
+          throw overBudget;
+        }
+      });
+    }
+    finally
+    {
+      flow.closeBrowsers();
+    }
+  }
+
+  private static void setDefault(String key, String value)
+  {
+    if (System.getProperty(key) == null)
+    {
+      System.setProperty(key, value);
+    }
+  }
+}
+
 /* siteHome.java pageobject */
 package com.seleniumframework.pageobjects;
 import org.openqa.selenium.By;
@@ -144,6 +202,12 @@ public class siteHome
       _linkCamper.verifyDisplayed();
     }
 
+    // Verify all vehicle nav links in one browser round-trip
+    public static void verifyNavLinks()
+    {
+      Element.verifyAllDisplayed(_linkAutomobile, _linkTruck, _linkMotorcycle, _linkCamper);
+    }
+
     // Click Automobile nav link
     public static void clickAutomobileNavLink()
     {
@@ -157,9 +221,14 @@ package com.seleniumframework.pageobjects;
 import org.openqa.selenium.By;
 
 // Inherit element classes
+import com.seleniumframework.dataobjects.InsurantDataInfo;
+import com.seleniumframework.dataobjects.ProductDataInfo;
+import com.seleniumframework.dataobjects.SendQuoteInfo;
+import com.seleniumframework.dataobjects.VehicleDataInfo;
 import com.seleniumframework.webelements.Button;
 import com.seleniumframework.webelements.CheckBox;
 import com.seleniumframework.webelements.Element;
+import com.seleniumframework.webelements.Form;
 import com.seleniumframework.webelements.Link;
 import com.seleniumframework.webelements.ListBox;
 import com.seleniumframework.webelements.RadioButton;
@@ -208,6 +277,18 @@ public class AutomobileInsurancePage
       _linkSendQuote.verifyDisplayed();
     }
 
+    public static void clickPriceOptionNavLink()
+    {
+      _linkSelectPriceOption.click();
+    }
+
+    // Verify the label and all section nav links in one browser round-trip
+    public static void vrfyNavLinks()
+    {
+      Element.verifyAllDisplayed(_lblAutoInsurance, _linkEnterVehicleData, _linkEnterInsurantData,
+        _linkEnterProductData, _linkSelectPriceOption, _linkSendQuote);
+    }
+
   }
 
   public static class vehicleDataSection
@@ -264,9 +345,32 @@ public class AutomobileInsurancePage
       _txtBoxAnnualMileage.setText(annualmileage);
     }
 
+    // Populate all vehicle data fields in one browser round-trip
+    public static void fill(VehicleDataInfo vehicle)
+    {
+      fill(vehicle.getMake(), vehicle.getEnginePerformance(), vehicle.getManufactureDate(), vehicle.getSeatNumbers(),
+        vehicle.getFuelType(), vehicle.getListPrice(), vehicle.getLicensePlateNumber(), vehicle.getAnnualMileage());
+    }
+
+    public static void fill(String make, String engineperf, String manufacturedate, String seatnums,
+      String fueltype, String listprice, String licenseplate, String annualmileage)
+    {
+      new Form("Vehicle Data")
+        .select(_lstBoxMake, make)
+        .text(_txtBoxEnginePerformance, engineperf)
+        .text(_txtBoxDateOfManufacture, manufacturedate)
+        .select(_lstSeatNums, seatnums)
+        .select(_lstFuelType, fueltype)
+        .text(_txtBoxListPrice, listprice)
+        .text(_txtBoxLicensePlateNumber, licenseplate)
+        .text(_txtBoxAnnualMileage, annualmileage)
+        .submit();
+    }
+
     public static void clickNext()
     {
       _btnNext.click();
+      insurantDataSection.awaitShown();
     }
   }
 
@@ -286,6 +390,12 @@ public class AutomobileInsurancePage
     private static CheckBox _chkHobbySkydiving = new CheckBox("Hobbies", By.xpath("(//span[@class=\"ideal-check\"])[3]"));
     private static Button _btnNextProduct = new Button("Next", By.xpath("//button[@id='nextenterproductdata']"));
 
+    // Called once the previous section's Next button was clicked
+    static void awaitShown()
+    {
+      _txtBoxFirstName.waitUntilLoaded();
+    }
+
     // Process data with the elements using a method of the elements
     public static void setFirstName(String firstname)
     {
@@ -342,9 +452,35 @@ public class AutomobileInsurancePage
       _chkHobbySkydiving.click();
     }
 
+    // Populate all insurant data fields in one browser round-trip
+    public static void fill(InsurantDataInfo insurant)
+    {
+      fill(insurant.getFirstName(), insurant.getLastName(), insurant.getDateOfBirth(), insurant.getStreetAddress(),
+        insurant.getCountry(), insurant.getZipCode(), insurant.getCity(), insurant.getOccupation());
+    }
+
+    public static void fill(String firstname, String lastname, String dob, String streetaddress,
+      String country, String zipcode, String city, String occupation)
+    {
+      new Form("Insurant Data")
+        .text(_txtBoxFirstName, firstname)
+        .text(_txtBoxLastName, lastname)
+        .text(_txtBoxDateOfBirth, dob)
+        .click(_rdoGender)
+        .text(_txtBoxStreetAddress, streetaddress)
+        .select(_lstCountry, country)
+        .text(_txtBoxZipCode, zipcode)
+        .text(_txtBoxCity, city)
+        .select(_lstOccupation, occupation)
+        .click(_chkHobbySpeeding)
+        .click(_chkHobbySkydiving)
+        .submit();
+    }
+
     public static void clickNextProductBtn()
     {
       _btnNextProduct.click();
+      productDataSection.awaitShown();
     }
   }
 
@@ -359,6 +495,12 @@ public class AutomobileInsurancePage
     private static ListBox _lstCourtesyCar = new ListBox("Courtesy Car", By.xpath("//select[@id='courtesycar']"));
     private static Button _btnNextPrice = new Button("Next", By.xpath("//button[@id='nextselectpriceoption']"));
 
+    // Called once the previous section's Next button was clicked
+    static void awaitShown()
+    {
+      _txtBoxStartDate.waitUntilLoaded();
+    }
+
     // Process data with the elements using a method of the elements
     public static void setStartDate(String startdate)
     {
@@ -390,9 +532,31 @@ public class AutomobileInsurancePage
       _lstCourtesyCar.selectByVisibleText(courtesycar);
     }
 
+    // Populate all product data fields in one browser round-trip
+    public static void fill(ProductDataInfo product)
+    {
+      fill(product.getStartDate(), product.getInsuranceSum(), product.getMeritRating(), product.getDamageInsurance(),
+        product.getCourtesyCar());
+    }
+
+    public static void fill(String startdate, String insurancesum, String rating, String damageinsurance,
+      String courtesycar)
+    {
+      new Form("Product Data")
+        .text(_txtBoxStartDate, startdate)
+        .select(_lstInsuranceSum, insurancesum)
+        .select(_lstMeritRating, rating)
+        .select(_lstDamageInsurance, damageinsurance)
+        .click(_chkOptionalProducts)
+        .select(_lstCourtesyCar, courtesycar)
+        .submit();
+    }
+
+    // The prices are calculated by an AJAX call
     public static void clickNextPriceBtn()
     {
       _btnNextPrice.click();
+      priceSection.awaitShown();
     }
 
   }
@@ -403,6 +567,12 @@ public class AutomobileInsurancePage
     private static RadioButton _rdoUltimate = new RadioButton("Ultimate", By.xpath("(//label[@class=\"choosePrice ideal-radiocheck-label\"])[4]"));
     private static Button _btnNextQuote = new Button("Next", By.xpath("//button[@id='nextsendquote']"));
 
+    // Called once the previous section's Next button was clicked
+    static void awaitShown()
+    {
+      _rdoUltimate.waitUntilLoaded();
+    }
+
     // Process data with the elements using a method of the elements
     public static void selUltimate()
     {
@@ -412,6 +582,7 @@ public class AutomobileInsurancePage
     public static void clickNextQuoteBtn()
     {
       _btnNextQuote.click();
+      sendQuoteSection.awaitShown();
     }
 
   }
@@ -425,6 +596,12 @@ public class AutomobileInsurancePage
     private static TextBox _txtBoxCofirmPassword = new TextBox("Confirm Password", By.xpath("//input[@id='confirmpassword']"));
     private static Button _btnSend = new Button("Next", By.xpath("//button[@id='sendemail']"));
 
+    // Called once the previous section's Next button was clicked
+    static void awaitShown()
+    {
+      _txtBoxEmail.waitUntilLoaded();
+    }
+
     // Process data with the elements using a method of the elements
     public static void setEmail(String email)
     {
@@ -446,6 +623,22 @@ public class AutomobileInsurancePage
       _txtBoxCofirmPassword.setText(confirmpassword);
     }
 
+    // Populate all send quote fields in one browser round-trip
+    public static void fill(SendQuoteInfo quote)
+    {
+      fill(quote.getEmail(), quote.getUsername(), quote.getPassword(), quote.getConfirmPassword());
+    }
+
+    public static void fill(String email, String username, String password, String confirmpassword)
+    {
+      new Form("Send Quote")
+        .text(_txtBoxEmail, email)
+        .text(_txtBoxUsername, username)
+        .text(_txtBoxPassword, password)
+        .text(_txtBoxCofirmPassword, confirmpassword)
+        .submit();
+    }
+
     public static void clickSendBtn()
     {
       _btnSend.click();
@@ -474,161 +667,6884 @@ public class AutomobileInsurancePage
 /* TestData.java dataobject */
 package com.seleniumframework.dataobjects;
 import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import org.testng.annotations.DataProvider;
+import com.seleniumframework.core.ChangeSelection;
 import com.seleniumframework.core.DataTable;
+import com.seleniumframework.core.ShardPlan;
 import jxl.read.biff.BiffException;
 
 public class TestData
 {
+  // Data row used by the accessors on the current thread
+  public static class Rows
+  {
+    public static void useRow(DataTable.Row row)
+    {
+      DataTable.useRow(row);
+    }
+
+    // The streamed row when one is bound, otherwise the first row of the sheet
+    public static DataTable.Row row() throws BiffException, IOException
+    {
+      ChangeSelection.touchClass(Rows.class.getName());
+      DataTable.Row row = DataTable.currentRow();
+      return row == null ? DataTable.firstRow() : row;
+    }
+
+    // Hands out the data rows this shard owns and change selection picked, one test invocation per row.
+    // Rows are streamed from the data source, the sheet index behind getCellValue is never built.
+    // TestNG drains a parallel provider up front, so the rows it hands out are held until the run ends.
+    // Worker pool size comes from the suite's data-provider-thread-count.
+    @DataProvider(name = "purchaseRows", parallel = true)
+    public static Iterator<Object[]> purchaseRows(final Method method) throws IOException
+    {
+      final Iterator<DataTable.Row> rows = DataTable.rows();
+      return new Iterator<Object[]>()
+      {
+        private DataTable.Row _next = advance();
+
+        public boolean hasNext()
+        {
+          return _next != null;
+        }
+
+        public Object[] next()
+        {
+          if (_next == null)
+          {
+            throw new NoSuchElementException();
+          }
+          DataTable.Row row = _next;
+          _next = advance();
+          return new Object[] { row };
+        }
+
+        private DataTable.Row advance()
+        {
+          while (rows.hasNext())
+          {
+            DataTable.Row row = rows.next();
+            String testId = ShardPlan.testId(method.getDeclaringClass(), method.getName(), row.getIndex());
+            if (ShardPlan.owns(testId) && ChangeSelection.isSelected(testId))
+            {
+              return row;
+            }
+          }
+          return null;
+        }
+
+        public void remove()
+        {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+  }
+
   public static class Urls
   {
+    // -Dsite.url wins over the URL column of the first data row
     public static String siteUrl() throws BiffException, IOException
     {
-      return DataTable.getCellValue("URL", 1);
+      ChangeSelection.touchClass(Urls.class.getName());
+      String url = System.getProperty("site.url");
+      return url != null ? url : DataTable.firstRow().get("URL");
     }
   }
+}
+
+/* RowClassGenerator.java dataobject */
+package com.seleniumframework.dataobjects;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import com.seleniumframework.core.DataSource;
+import com.seleniumframework.core.DataTable;
+import com.seleniumframework.core.Log;
+
+// Reads the data sheet header and writes one immutable row class per column group. The classes are
+// committed with the tests, so regenerate them after changing the header or GROUPS:
+//   java RowClassGenerator <sourceDir> [dataTablePath] [sheet]
+// With --check first it writes nothing and fails when a group column is missing from the header or a
+// committed class differs from what would be generated, so a CI step catches a stale header binding.
+public class RowClassGenerator
+{
+  private static final String PACKAGE = "com.seleniumframework.dataobjects";
+
+  // Generated class name -> sheet columns it binds
+  private static final Map<String, List<String>> GROUPS = new LinkedHashMap<String, List<String>>();
+
+  static
+  {
+    GROUPS.put("VehicleDataInfo", Arrays.asList("Make", "EnginePerformance", "ManufactureDate", "SeatNumbers",
+      "FuelType", "ListPrice", "LicensePlateNumber", "AnnualMileage"));
+    GROUPS.put("InsurantDataInfo", Arrays.asList("FirstName", "LastName", "DateOfBirth", "StreetAddress",
+      "Country", "ZipCode", "City", "Occupation"));
+    GROUPS.put("ProductDataInfo", Arrays.asList("StartDate", "InsuranceSum", "MeritRating", "DamageInsurance",
+      "CourtesyCar"));
+    GROUPS.put("SendQuoteInfo", Arrays.asList("Email", "Username", "Password", "ConfirmPassword", "EmailSuccess"));
+  }
 
-  public static class PurchaseInfo
+  public static void main(String[] args) throws IOException
   {
-    public static class VehicleDataInfo
+    boolean check = args.length > 0 && args[0].equals("--check");
+    if (check)
     {
-      public static String Make() throws BiffException, IOException
-      {
-        return DataTable.getCellValue("Make", 1);
-      }
+      args = Arrays.copyOfRange(args, 1, args.length);
+    }
+    if (args.length < 1)
+    {
+      throw new IllegalArgumentException("Usage: RowClassGenerator [--check] <sourceDir> [dataTablePath] [sheet]");
+    }
+    String path = args.length > 1 ? args[1] : System.getProperty("datatable.path", "src/test/resources/TestData.xls");
+    String sheet = args.length > 2 ? args[2] : System.getProperty("datatable.sheet", "");
 
-      public static String EnginePerformance() throws BiffException, IOException
+    Set<String> header = readHeader(DataTable.sourceFor(path, sheet));
+    List<String> missing = new ArrayList<String>();
+    for (Map.Entry<String, List<String>> group : GROUPS.entrySet())
+    {
+      for (String column : group.getValue())
       {
-        return DataTable.getCellValue("EnginePerformance", 1);
+        if (!header.contains(column))
+        {
+          missing.add(group.getKey() + "." + column);
+        }
       }
+    }
+    if (!missing.isEmpty())
+    {
+      throw new IllegalStateException("Columns not found in " + path + ": " + missing);
+    }
 
-      public static String ManufactureDate() throws BiffException, IOException
+    File dir = new File(args[0], PACKAGE.replace('.', '/'));
+    if (check)
+    {
+      List<String> stale = new ArrayList<String>();
+      for (Map.Entry<String, List<String>> group : GROUPS.entrySet())
       {
-        return DataTable.getCellValue("ManufactureDate", 1);
+        File file = new File(dir, group.getKey() + ".java");
+        String expected = generate(group.getKey(), group.getValue());
+        if (!file.isFile() || !new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).equals(expected))
+        {
+          stale.add(file.getPath());
+        }
       }
-
-      public static String SeatNumbers() throws BiffException, IOException
+      if (!stale.isEmpty())
       {
-        return DataTable.getCellValue("SeatNumbers", 1);
+        throw new IllegalStateException("Row classes out of date with " + path + ", regenerate them: " + stale);
       }
+      Log.info("Row classes in " + dir + " match " + path);
+      Log.flush();
+      return;
+    }
 
-      public static String FuelType() throws BiffException, IOException
+    if (!dir.isDirectory() && !dir.mkdirs())
+    {
+      throw new IOException("Could not create " + dir);
+    }
+    for (Map.Entry<String, List<String>> group : GROUPS.entrySet())
+    {
+      File file = new File(dir, group.getKey() + ".java");
+      try (Writer out = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8))
       {
-        return DataTable.getCellValue("FuelType", 1);
+        out.write(generate(group.getKey(), group.getValue()));
       }
+      Log.info("Generated " + file);
+    }
+    Log.flush();
+  }
 
-      public static String ListPrice() throws BiffException, IOException
-      {
-        return DataTable.getCellValue("ListPrice", 1);
-      }
+  static String generate(String className, List<String> columns)
+  {
+    StringBuilder java = new StringBuilder();
+    java.append("package ").append(PACKAGE).append(";\n");
+    java.append("import com.seleniumframework.core.ChangeSelection;\n");
+    java.append("import com.seleniumframework.core.DataTable;\n\n");
+    java.append("// Generated by RowClassGenerator from the data sheet header, do not edit\n");
+    java.append("public final class ").append(className).append("\n{\n");
+    for (String column : columns)
+    {
+      java.append("  private final String _").append(variable(column)).append(";\n");
+    }
 
-      public static String LicensePlateNumber() throws BiffException, IOException
-      {
-        return DataTable.getCellValue("LicensePlateNumber", 1);
-      }
+    java.append("\n  public ").append(className).append("(");
+    for (int i = 0; i < columns.size(); i++)
+    {
+      java.append(i == 0 ? "" : ", ").append("String ").append(variable(columns.get(i)));
+    }
+    java.append(")\n  {\n");
+    for (String column : columns)
+    {
+      java.append("    _").append(variable(column)).append(" = ").append(variable(column)).append(";\n");
+    }
+    java.append("  }\n\n");
 
-      public static String AnnualMileage() throws BiffException, IOException
-      {
-        return DataTable.getCellValue("AnnualMileage", 1);
-      }
+    java.append("  // Binds every column of the group from one data row\n");
+    java.append("  public static ").append(className).append(" from(DataTable.Row row)\n  {\n");
+    java.append("    ChangeSelection.touchClass(").append(className).append(".class.getName());\n");
+    java.append("    return new ").append(className).append("(");
+    for (int i = 0; i < columns.size(); i++)
+    {
+      java.append(i == 0 ? "\n" : ",\n").append("      row.get(\"").append(columns.get(i)).append("\")");
     }
+    java.append(");\n  }\n");
 
-    public static class InsurantDataInfo
+    for (String column : columns)
     {
-      public static String FirstName() throws BiffException, IOException
-      {
-        return DataTable.getCellValue("FirstName", 1);
-      }
+      java.append("\n  public String get").append(column).append("()\n  {\n");
+      java.append("    return _").append(variable(column)).append(";\n  }\n");
+    }
+    java.append("}\n");
+    return java.toString();
+  }
 
-      public static String LastName() throws BiffException, IOException
-      {
-        return DataTable.getCellValue("LastName", 1);
-      }
+  private static String variable(String column)
+  {
+    return Character.toLowerCase(column.charAt(0)) + column.substring(1);
+  }
 
-      public static String DateOfBirth() throws BiffException, IOException
-      {
-        return DataTable.getCellValue("DateOfBirth", 1);
-      }
+  private static Set<String> readHeader(DataSource source) throws IOException
+  {
+    try (DataSource.RowReader reader = source.open())
+    {
+      String[] header = reader.next();
+      return header == null ? new HashSet<String>() : new HashSet<String>(Arrays.asList(header));
+    }
+  }
+}
 
-      public static String StreetAddress() throws BiffException, IOException
-      {
-        return DataTable.getCellValue("StreetAddress", 1);
-      }
+/* VehicleDataInfo.java dataobject generated */
+package com.seleniumframework.dataobjects;
+import com.seleniumframework.core.ChangeSelection;
+import com.seleniumframework.core.DataTable;
 
-      public static String Country() throws BiffException, IOException
-      {
-        return DataTable.getCellValue("Country", 1);
-      }
+// Generated by RowClassGenerator from the data sheet header, do not edit
+public final class VehicleDataInfo
+{
+  private final String _make;
+  private final String _enginePerformance;
+  private final String _manufactureDate;
+  private final String _seatNumbers;
+  private final String _fuelType;
+  private final String _listPrice;
+  private final String _licensePlateNumber;
+  private final String _annualMileage;
+
+  public VehicleDataInfo(String make, String enginePerformance, String manufactureDate, String seatNumbers, String fuelType, String listPrice, String licensePlateNumber, String annualMileage)
+  {
+    _make = make;
+    _enginePerformance = enginePerformance;
+    _manufactureDate = manufactureDate;
+    _seatNumbers = seatNumbers;
+    _fuelType = fuelType;
+    _listPrice = listPrice;
+    _licensePlateNumber = licensePlateNumber;
+    _annualMileage = annualMileage;
+  }
 
-      public static String ZipCode() throws BiffException, IOException
-      {
-        return DataTable.getCellValue("ZipCode", 1);
-      }
+  // Binds every column of the group from one data row
+  public static VehicleDataInfo from(DataTable.Row row)
+  {
+    ChangeSelection.touchClass(VehicleDataInfo.class.getName());
+    return new VehicleDataInfo(
+      row.get("Make"),
+      row.get("EnginePerformance"),
+      row.get("ManufactureDate"),
+      row.get("SeatNumbers"),
+      row.get("FuelType"),
+      row.get("ListPrice"),
+      row.get("LicensePlateNumber"),
+      row.get("AnnualMileage"));
+  }
 
-      public static String City() throws BiffException, IOException
-      {
-        return DataTable.getCellValue("City", 1);
-      }
+  public String getMake()
+  {
+    return _make;
+  }
 
-      public static String Occupation() throws BiffException, IOException
-      {
-        return DataTable.getCellValue("Occupation", 1);
-      }
-    }
+  public String getEnginePerformance()
+  {
+    return _enginePerformance;
+  }
 
-    public static class ProductDataInfo
-    {
-      public static String StartDate() throws BiffException, IOException
-      {
-        return DataTable.getCellValue("StartDate", 1);
-      }
+  public String getManufactureDate()
+  {
+    return _manufactureDate;
+  }
 
-      public static String InsuranceSum() throws BiffException, IOException
-      {
-        return DataTable.getCellValue("InsuranceSum", 1);
-      }
+  public String getSeatNumbers()
+  {
+    return _seatNumbers;
+  }
 
-      public static String MeritRating() throws BiffException, IOException
-      {
-        return DataTable.getCellValue("MeritRating", 1);
-      }
+  public String getFuelType()
+  {
+    return _fuelType;
+  }
 
-      public static String DamageInsurance() throws BiffException, IOException
-      {
-        return DataTable.getCellValue("DamageInsurance", 1);
-      }
+  public String getListPrice()
+  {
+    return _listPrice;
+  }
 
-      public static String CourtesyCar() throws BiffException, IOException
-      {
-        return DataTable.getCellValue("CourtesyCar", 1);
-      }
-    }
+  public String getLicensePlateNumber()
+  {
+    return _licensePlateNumber;
+  }
 
-    public static class SendQuoteInfo
-    {
-      public static String Email() throws BiffException, IOException
-      {
-        return DataTable.getCellValue("Email", 1);
-      }
+  public String getAnnualMileage()
+  {
+    return _annualMileage;
+  }
+}
 
-      public static String Username() throws BiffException, IOException
-      {
-        return DataTable.getCellValue("Username", 1);
-      }
+/* InsurantDataInfo.java dataobject generated */
+package com.seleniumframework.dataobjects;
+import com.seleniumframework.core.ChangeSelection;
+import com.seleniumframework.core.DataTable;
 
-      public static String Password() throws BiffException, IOException
-      {
-        return DataTable.getCellValue("Password", 1);
-      }
+// Generated by RowClassGenerator from the data sheet header, do not edit
+public final class InsurantDataInfo
+{
+  private final String _firstName;
+  private final String _lastName;
+  private final String _dateOfBirth;
+  private final String _streetAddress;
+  private final String _country;
+  private final String _zipCode;
+  private final String _city;
+  private final String _occupation;
+
+  public InsurantDataInfo(String firstName, String lastName, String dateOfBirth, String streetAddress, String country, String zipCode, String city, String occupation)
+  {
+    _firstName = firstName;
+    _lastName = lastName;
+    _dateOfBirth = dateOfBirth;
+    _streetAddress = streetAddress;
+    _country = country;
+    _zipCode = zipCode;
+    _city = city;
+    _occupation = occupation;
+  }
 
-      public static String ConfirmPassword() throws BiffException, IOException
-      {
-        return DataTable.getCellValue("ConfirmPassword", 1);
-      }
+  // Binds every column of the group from one data row
+  public static InsurantDataInfo from(DataTable.Row row)
+  {
+    ChangeSelection.touchClass(InsurantDataInfo.class.getName());
+    return new InsurantDataInfo(
+      row.get("FirstName"),
+      row.get("LastName"),
+      row.get("DateOfBirth"),
+      row.get("StreetAddress"),
+      row.get("Country"),
+      row.get("ZipCode"),
+      row.get("City"),
+      row.get("Occupation"));
+  }
+
+  public String getFirstName()
+  {
+    return _firstName;
+  }
+
+  public String getLastName()
+  {
+    return _lastName;
+  }
+
+  public String getDateOfBirth()
+  {
+    return _dateOfBirth;
+  }
+
+  public String getStreetAddress()
+  {
+    return _streetAddress;
+  }
+
+  public String getCountry()
+  {
+    return _country;
+  }
+
+  public String getZipCode()
+  {
+    return _zipCode;
+  }
+
+  public String getCity()
+  {
+    return _city;
+  }
+
+  public String getOccupation()
+  {
+    return _occupation;
+  }
+}
+
+/* ProductDataInfo.java dataobject generated */
+package com.seleniumframework.dataobjects;
+import com.seleniumframework.core.ChangeSelection;
+import com.seleniumframework.core.DataTable;
+
+// Generated by RowClassGenerator from the data sheet header, do not edit
+public final class ProductDataInfo
+{
+  private final String _startDate;
+  private final String _insuranceSum;
+  private final String _meritRating;
+  private final String _damageInsurance;
+  private final String _courtesyCar;
+
+  public ProductDataInfo(String startDate, String insuranceSum, String meritRating, String damageInsurance, String courtesyCar)
+  {
+    _startDate = startDate;
+    _insuranceSum = insuranceSum;
+    _meritRating = meritRating;
+    _damageInsurance = damageInsurance;
+    _courtesyCar = courtesyCar;
+  }
+
+  // Binds every column of the group from one data row
+  public static ProductDataInfo from(DataTable.Row row)
+  {
+    ChangeSelection.touchClass(ProductDataInfo.class.getName());
+    return new ProductDataInfo(
+      row.get("StartDate"),
+      row.get("InsuranceSum"),
+      row.get("MeritRating"),
+      row.get("DamageInsurance"),
+      row.get("CourtesyCar"));
+  }
+
+  public String getStartDate()
+  {
+    return _startDate;
+  }
 
-      public static String EmailSuccess() throws BiffException, IOException
+  public String getInsuranceSum()
+  {
+    return _insuranceSum;
+  }
+
+  public String getMeritRating()
+  {
+    return _meritRating;
+  }
+
+  public String getDamageInsurance()
+  {
+    return _damageInsurance;
+  }
+
+  public String getCourtesyCar()
+  {
+    return _courtesyCar;
+  }
+}
+
+/* SendQuoteInfo.java dataobject generated */
+package com.seleniumframework.dataobjects;
+import com.seleniumframework.core.ChangeSelection;
+import com.seleniumframework.core.DataTable;
+
+// Generated by RowClassGenerator from the data sheet header, do not edit
+public final class SendQuoteInfo
+{
+  private final String _email;
+  private final String _username;
+  private final String _password;
+  private final String _confirmPassword;
+  private final String _emailSuccess;
+
+  public SendQuoteInfo(String email, String username, String password, String confirmPassword, String emailSuccess)
+  {
+    _email = email;
+    _username = username;
+    _password = password;
+    _confirmPassword = confirmPassword;
+    _emailSuccess = emailSuccess;
+  }
+
+  // Binds every column of the group from one data row
+  public static SendQuoteInfo from(DataTable.Row row)
+  {
+    ChangeSelection.touchClass(SendQuoteInfo.class.getName());
+    return new SendQuoteInfo(
+      row.get("Email"),
+      row.get("Username"),
+      row.get("Password"),
+      row.get("ConfirmPassword"),
+      row.get("EmailSuccess"));
+  }
+
+  public String getEmail()
+  {
+    return _email;
+  }
+
+  public String getUsername()
+  {
+    return _username;
+  }
+
+  public String getPassword()
+  {
+    return _password;
+  }
+
+  public String getConfirmPassword()
+  {
+    return _confirmPassword;
+  }
+
+  public String getEmailSuccess()
+  {
+    return _emailSuccess;
+  }
+}
+
+/* Browser.java core */
+package com.seleniumframework.core;
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.chrome.ChromeDriver;
+import org.openqa.selenium.firefox.FirefoxDriver;
+import org.testng.ITestResult;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.AfterSuite;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Listeners;
+import com.seleniumframework.webelements.Element;
+import com.seleniumframework.webelements.LocatorOptimizer;
+import com.seleniumframework.webelements.RetryPolicy;
+
+@Listeners(ShardInterceptor.class)
+public class Browser
+{
+  private static final String _browserName = System.getProperty("browser", "chrome");
+  private static final int _poolSize = Integer.getInteger("browser.pool.size", 4);
+  private static final int _maxUses = Integer.getInteger("browser.pool.maxUses", 50);
+
+  // Warm browsers shared by all test classes, each test leases one for its thread
+  private static final BrowserPool _pool = new BrowserPool(_poolSize, _maxUses, new BrowserPool.Factory()
+  {
+    public WebDriver create()
+    {
+      return createDriver();
+    }
+  });
+
+  private static final Map<String, Checkpoint> _checkpoints = new ConcurrentHashMap<String, Checkpoint>();
+
+  // Rule savings are measured once per run, on the first page opened
+  private static final AtomicBoolean _profileMeasured = new AtomicBoolean();
+
+  static
+  {
+    if (Boolean.parseBoolean(System.getProperty("browser.pool.prewarm", "true")))
+    {
+      _pool.warmUp();
+    }
+  }
+
+  public static WebDriver getDriver()
+  {
+    WebDriver driver = DriverContext.current();
+    if (driver == null)
+    {
+      driver = _pool.lease();
+      DriverContext.bind(driver);
+    }
+    return driver;
+  }
+
+  // Navigate the current driver, elements resolved on the previous page are dropped.
+  // With -Dsite.mode=RECORD or REPLAY the page is loaded through the local SiteServer.
+  public static void open(String url)
+  {
+    String target = SiteServer.rewrite(url);
+    if (FastProfile.isEnabled() && Boolean.getBoolean("browser.profile.measure") && _profileMeasured.compareAndSet(false, true)
+      && getDriver() instanceof ChromeDriver)
+    {
+      FastProfile.measure((ChromeDriver) getDriver(), target);
+    }
+
+    long start = System.nanoTime();
+    getDriver().get(target);
+    Timings.recordAction("Browser", "navigate", System.nanoTime() - start);
+    DriverContext.pageChanged();
+    SmartWait.installHooks(getDriver());
+  }
+
+  // Start timing a numbered test step, the previous step on this thread ends here.
+  // Fails the test when the previous step went over one of its page timing budgets.
+  public static void step(String name)
+  {
+    AssertionError overBudget = endStep("PASS");
+    if (overBudget != null)
+    {
+      Log.setStepName(null);
+      throw overBudget;
+    }
+    Timings.startStep(name);
+    Log.setStepName(name);
+    RetryPolicy.resetStep();
+    Screenshot.onStep(name);
+    PageTiming.markStep();
+  }
+
+  // Fail the named step of the running test when the browser-side metric goes over maxMillis
+  public static void budget(String step, PageTiming.Metric metric, long maxMillis)
+  {
+    PageTiming.budget(step, metric, maxMillis);
+  }
+
+  // Returns the budget failure of the step, null when it kept to its budgets
+  private static AssertionError endStep(String outcome)
+  {
+    String name = Log.getStepName();
+    PageTiming.Sample timing = name == null ? null : PageTiming.collect(Log.getStoryName(), name);
+    String overBudget = timing == null ? null : PageTiming.checkBudgets(name, timing);
+    if (timing != null)
+    {
+      Log.info("Page timing: " + timing);
+    }
+    if (overBudget != null)
+    {
+      Log.fail(overBudget);
+      outcome = "FAIL";
+    }
+
+    long elapsed = Timings.endStep();
+    if (name != null && elapsed >= 0 && LoadGenerator.isRunning())
+    {
+      LoadGenerator.recordStep(name, elapsed);
+    }
+    else if (name != null && elapsed >= 0)
+    {
+      Report.step(Log.getStoryName(), name, TimeUnit.NANOSECONDS.toMillis(elapsed), outcome);
+    }
+    return overBudget == null ? null : new AssertionError(overBudget);
+  }
+
+  // Remember the browser state after a named step so other tests can start from there.
+  // Only the first test to reach the step saves it, later ones keep that checkpoint.
+  public static void saveCheckpoint(String name)
+  {
+    saveCheckpoint(name, false);
+  }
+
+  // With replace, the checkpoint is captured again even when one was already saved
+  public static void saveCheckpoint(String name, boolean replace)
+  {
+    // Load runs repeat the flow for throughput, nothing restores their checkpoints
+    if (LoadGenerator.isRunning() || (!replace && _checkpoints.containsKey(name)))
+    {
+      return;
+    }
+    Checkpoint checkpoint = Checkpoint.capture(name, getDriver(), DataTable.currentRow());
+    if (replace)
+    {
+      _checkpoints.put(name, checkpoint);
+    }
+    else if (_checkpoints.putIfAbsent(name, checkpoint) != null)
+    {
+      return;
+    }
+    Log.info("Saved checkpoint '" + name + "'" + (checkpoint.getRow() == null ? "" : " with data " + checkpoint.getRow()));
+  }
+
+  // Returns false when no test has saved the checkpoint in this run.
+  // The data row the checkpoint was saved with is bound to this thread.
+  public static boolean restoreCheckpoint(String name)
+  {
+    Checkpoint checkpoint = _checkpoints.get(name);
+    if (checkpoint == null)
+    {
+      return false;
+    }
+    DataTable.useRow(checkpoint.getRow());
+
+    long start = System.nanoTime();
+    checkpoint.restore(getDriver());
+    Timings.recordAction("Browser", "restoreCheckpoint", System.nanoTime() - start);
+    DriverContext.pageChanged();
+    SmartWait.installHooks(getDriver());
+    Log.info("Restored checkpoint '" + name + "' at " + checkpoint.getUrl());
+    return true;
+  }
+
+  // Ends the running step and hands the thread's browser back to the pool, for flows run outside TestNG.
+  // Returns the budget failure of that last step, null when it kept to its budgets.
+  public static AssertionError releaseDriver(boolean passed)
+  {
+    AssertionError overBudget = endStep(passed ? "PASS" : "FAIL");
+    Log.setStepName(null);
+    DataTable.useRow(null);
+    RetryPolicy.resetStep();
+    PageTiming.endTest();
+    Screenshot.reset();
+    WebDriver driver = DriverContext.current();
+    if (driver != null)
+    {
+      Element.resetCacheStats();
+      DriverContext.unbind();
+      _pool.release(driver);
+    }
+    return overBudget;
+  }
+
+  public static BrowserPool getPool()
+  {
+    return _pool;
+  }
+
+  private static WebDriver createDriver()
+  {
+    if (_browserName.equalsIgnoreCase("firefox"))
+    {
+      return new FirefoxDriver();
+    }
+    ChromeDriver driver;
+    if (FastProfile.isEnabled())
+    {
+      driver = new ChromeDriver(FastProfile.options());
+      FastProfile.apply(driver);
+    }
+    else
+    {
+      driver = new ChromeDriver();
+    }
+    SmartWait.register(driver);
+    return driver;
+  }
+
+  @BeforeMethod(alwaysRun = true)
+  public void leaseBrowser()
+  {
+    ChangeSelection.begin();
+    getDriver();
+  }
+
+  // The pool clears cookies and storage before the session is handed out again
+  @AfterMethod(alwaysRun = true)
+  public void releaseBrowser(ITestResult result)
+  {
+    String outcome = result.getStatus() == ITestResult.SUCCESS ? "PASS"
+      : result.getStatus() == ITestResult.FAILURE ? "FAIL" : "SKIP";
+    // The last step only ends here, its budget failure is reported against the test
+    AssertionError overBudget = endStep(outcome);
+    if (overBudget != null && result.getStatus() == ITestResult.SUCCESS)
+    {
+      result.setStatus(ITestResult.FAILURE);
+      result.setThrowable(overBudget);
+      outcome = "FAIL";
+    }
+    Log.setStepName(null);
+    Throwable error = result.getThrowable();
+    long duration = result.getEndMillis() - result.getStartMillis();
+    Report.test(result.getName(), Log.getStoryName(), duration, outcome, error == null ? null : error.toString());
+    if (result.getStatus() != ITestResult.SKIP)
+    {
+      DurationHistory.record(testId(result), duration);
+      ChangeSelection.touchClass(result.getMethod().getRealClass().getName());
+      ChangeSelection.end(testId(result), result.getStatus() == ITestResult.SUCCESS);
+    }
+
+    if (result.getStatus() == ITestResult.FAILURE)
+    {
+      Screenshot.onFailure(result.getName());
+    }
+    Screenshot.reset();
+    DataTable.useRow(null);
+    RetryPolicy.resetStep();
+    PageTiming.endTest();
+
+    WebDriver driver = DriverContext.current();
+    if (driver != null)
+    {
+      Log.info("Element lookups: " + Element.getCacheHits() + " cached, " + Element.getCacheMisses() + " resolved");
+      Element.resetCacheStats();
+      DriverContext.unbind();
+      _pool.release(driver);
+    }
+  }
+
+  private static String testId(ITestResult result)
+  {
+    Object[] parameters = result.getParameters();
+    Class<?> testClass = result.getMethod().getRealClass();
+    if (parameters != null && parameters.length > 0 && parameters[0] instanceof DataTable.Row)
+    {
+      return ShardPlan.testId(testClass, result.getMethod().getMethodName(), ((DataTable.Row) parameters[0]).getIndex());
+    }
+    return ShardPlan.testId(testClass, result.getMethod().getMethodName());
+  }
+
+  @AfterSuite(alwaysRun = true)
+  public void closeBrowsers()
+  {
+    Log.info(_pool.getMetrics());
+    Log.info(LocatorOptimizer.getSlowLocatorReport());
+    Log.info(RetryPolicy.getSummary());
+    _pool.shutdown();
+    Screenshot.shutdown();
+    SiteServer.stopAll(Report.isPassing());
+    Timings.export(new File(ShardPlan.qualify(System.getProperty("timings.path", "target/latency.json"))));
+    PageTiming.close();
+    DurationHistory.save();
+    ChangeSelection.save();
+    Report.finish();
+    Log.flush();
+  }
+}
+
+/* BrowserPool.java core */
+package com.seleniumframework.core;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+
+// Keeps up to N browser sessions open and hands them out one test at a time
+public class BrowserPool
+{
+  public interface Factory
+  {
+    WebDriver create();
+  }
+
+  public enum RecycleReason
+  {
+    HEALTH_CHECK, MAX_USES, RESET_FAILED, SHUTDOWN
+  }
+
+  private final int _size;
+  private final int _maxUses;
+  private final Factory _factory;
+  private final BlockingQueue<Session> _idle = new LinkedBlockingQueue<Session>();
+  private final Map<WebDriver, Session> _leased = new ConcurrentHashMap<WebDriver, Session>();
+  private final AtomicInteger _open = new AtomicInteger();
+
+  private final AtomicLong _leases = new AtomicLong();
+  private final AtomicLong _hits = new AtomicLong();
+  private final AtomicLong _misses = new AtomicLong();
+  private final AtomicLong _leaseWaitNanos = new AtomicLong();
+  private final AtomicLong _maxLeaseWaitNanos = new AtomicLong();
+  private final Map<RecycleReason, AtomicLong> _recycled = new EnumMap<RecycleReason, AtomicLong>(RecycleReason.class);
+
+  public BrowserPool(int size, int maxUses, Factory factory)
+  {
+    _size = size;
+    _maxUses = maxUses;
+    _factory = factory;
+    for (RecycleReason reason : RecycleReason.values())
+    {
+      _recycled.put(reason, new AtomicLong());
+    }
+  }
+
+  // Launch the remaining sessions in parallel so the first tests don't pay for them
+  public void warmUp()
+  {
+    int missing = _size - _open.get();
+    for (int i = 0; i < missing; i++)
+    {
+      Thread thread = new Thread(new Runnable()
+      {
+        public void run()
+        {
+          Session session = tryCreate();
+          if (session != null)
+          {
+            _idle.offer(session);
+          }
+        }
+      }, "browser-pool-warmup-" + i);
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  public WebDriver lease()
+  {
+    long start = System.nanoTime();
+    try
+    {
+      Session session = pollHealthy();
+      if (session != null)
+      {
+        _hits.incrementAndGet();
+      }
+      else
+      {
+        _misses.incrementAndGet();
+        session = tryCreate();
+        while (session == null)
+        {
+          // Pool is at capacity, wait for a session to come back
+          session = _idle.poll(1, TimeUnit.SECONDS);
+          if (session != null && !isHealthy(session))
+          {
+            recycle(session, RecycleReason.HEALTH_CHECK);
+            session = null;
+          }
+          if (session == null)
+          {
+            session = tryCreate();
+          }
+        }
+      }
+      _leased.put(session.driver, session);
+      return session.driver;
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for a browser session", e);
+    }
+    finally
+    {
+      long waited = System.nanoTime() - start;
+      _leases.incrementAndGet();
+      _leaseWaitNanos.addAndGet(waited);
+      long max;
+      while (waited > (max = _maxLeaseWaitNanos.get()) && !_maxLeaseWaitNanos.compareAndSet(max, waited))
+      {
+      }
+    }
+  }
+
+  public void release(WebDriver driver)
+  {
+    Session session = _leased.remove(driver);
+    if (session == null)
+    {
+      driver.quit();
+      return;
+    }
+
+    session.uses++;
+    if (session.uses >= _maxUses)
+    {
+      recycle(session, RecycleReason.MAX_USES);
+      return;
+    }
+
+    try
+    {
+      reset(driver);
+      _idle.offer(session);
+    }
+    catch (WebDriverException e)
+    {
+      recycle(session, RecycleReason.RESET_FAILED);
+    }
+  }
+
+  public void shutdown()
+  {
+    Session session;
+    while ((session = _idle.poll()) != null)
+    {
+      recycle(session, RecycleReason.SHUTDOWN);
+    }
+    for (Session leased : _leased.values())
+    {
+      recycle(leased, RecycleReason.SHUTDOWN);
+    }
+    _leased.clear();
+  }
+
+  public String getMetrics()
+  {
+    long leases = _leases.get();
+    long avgWaitMs = leases == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(_leaseWaitNanos.get() / leases);
+    return "Browser pool: leases=" + leases
+      + " hits=" + _hits.get()
+      + " misses=" + _misses.get()
+      + " avgLeaseWaitMs=" + avgWaitMs
+      + " maxLeaseWaitMs=" + TimeUnit.NANOSECONDS.toMillis(_maxLeaseWaitNanos.get())
+      + " recycled=" + _recycled;
+  }
+
+  private Session pollHealthy()
+  {
+    Session session;
+    while ((session = _idle.poll()) != null)
+    {
+      if (isHealthy(session))
+      {
+        return session;
+      }
+      recycle(session, RecycleReason.HEALTH_CHECK);
+    }
+    return null;
+  }
+
+  private Session tryCreate()
+  {
+    int open;
+    do
+    {
+      open = _open.get();
+      if (open >= _size)
+      {
+        return null;
+      }
+    }
+    while (!_open.compareAndSet(open, open + 1));
+
+    try
+    {
+      return new Session(_factory.create());
+    }
+    catch (RuntimeException e)
+    {
+      _open.decrementAndGet();
+      throw e;
+    }
+  }
+
+  private boolean isHealthy(Session session)
+  {
+    try
+    {
+      session.driver.getWindowHandle();
+      return true;
+    }
+    catch (WebDriverException e)
+    {
+      return false;
+    }
+  }
+
+  // Clear what the last test left behind, storage is per origin so clear it before leaving the page
+  private void reset(WebDriver driver)
+  {
+    driver.manage().deleteAllCookies();
+    try
+    {
+      ((JavascriptExecutor) driver).executeScript("window.localStorage.clear(); window.sessionStorage.clear();");
+    }
+    catch (WebDriverException e)
+    {
+      // about:blank and data: pages have no storage to clear
+    }
+    driver.get("about:blank");
+  }
+
+  private void recycle(Session session, RecycleReason reason)
+  {
+    _recycled.get(reason).incrementAndGet();
+    _open.decrementAndGet();
+    try
+    {
+      session.driver.quit();
+    }
+    catch (WebDriverException e)
+    {
+      // Session is already gone
+    }
+  }
+
+  private static final class Session
+  {
+    final WebDriver driver;
+    int uses;
+
+    Session(WebDriver driver)
+    {
+      this.driver = driver;
+    }
+  }
+}
+
+/* Log.java core */
+package com.seleniumframework.core;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Test threads only claim a slot in a fixed-size ring buffer and fill it in,
+// a background thread formats the events and writes them to disk in batches
+public class Log
+{
+  public enum Outcome
+  {
+    INFO, PASS, FAIL
+  }
+
+  // What to do with a new event when the writer has fallen a full buffer behind.
+  // Failures always wait for space so they are never lost.
+  public enum OverflowPolicy
+  {
+    BLOCK, DROP
+  }
+
+  private static final int _capacity = Integer.highestOneBit(Math.max(2, Integer.getInteger("log.bufferSize", 8192)));
+  private static final int _mask = _capacity - 1;
+  private static final int _batchSize = 256;
+  private static final OverflowPolicy _overflow =
+    OverflowPolicy.valueOf(System.getProperty("log.overflow", "DROP").toUpperCase());
+  private static final String _path = ShardPlan.qualify(System.getProperty("log.path", "target/test-log.txt"));
+
+  private static final Slot[] _slots = new Slot[_capacity];
+  private static final AtomicLong _head = new AtomicLong();
+  private static final AtomicLong _tail = new AtomicLong();
+  // Events before this sequence have been flushed out of the writer's buffer
+  private static final AtomicLong _flushed = new AtomicLong();
+  private static final AtomicLong _dropped = new AtomicLong();
+
+  private static final ThreadLocal<String[]> _context = new ThreadLocal<String[]>()
+  {
+    @Override
+    protected String[] initialValue()
+    {
+      return new String[2];
+    }
+  };
+
+  private static final Thread _writer;
+
+  static
+  {
+    for (int i = 0; i < _capacity; i++)
+    {
+      _slots[i] = new Slot();
+    }
+    _writer = new Thread(new Runnable()
+    {
+      public void run()
+      {
+        drainForever();
+      }
+    }, "log-writer");
+    _writer.setDaemon(true);
+    _writer.start();
+    Runtime.getRuntime().addShutdownHook(new Thread(new Runnable()
+    {
+      public void run()
+      {
+        flush();
+      }
+    }, "log-flush"));
+  }
+
+  public static void setStoryName(String story)
+  {
+    _context.get()[0] = story;
+    _context.get()[1] = null;
+    info("Story: " + story);
+  }
+
+  public static void setStepName(String step)
+  {
+    _context.get()[1] = step;
+  }
+
+  public static String getStoryName()
+  {
+    return _context.get()[0];
+  }
+
+  public static String getStepName()
+  {
+    return _context.get()[1];
+  }
+
+  public static void info(String message)
+  {
+    publish(Outcome.INFO, null, null, -1, message);
+  }
+
+  public static void pass(String message)
+  {
+    publish(Outcome.PASS, null, null, -1, message);
+  }
+
+  public static void fail(String message)
+  {
+    publish(Outcome.FAIL, null, null, -1, message);
+  }
+
+  // Structured entry for one element action
+  public static void action(String element, String action, long durationNanos, Outcome outcome, String message)
+  {
+    publish(outcome, element, action, durationNanos, message);
+  }
+
+  public static long getDroppedCount()
+  {
+    return _dropped.get();
+  }
+
+  // Wait until everything published so far is on disk
+  public static void flush()
+  {
+    long target = _head.get();
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (_flushed.get() < target && System.nanoTime() < deadline)
+    {
+      LockSupport.unpark(_writer);
+      LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+    }
+  }
+
+  private static void publish(Outcome outcome, String element, String action, long durationNanos, String message)
+  {
+    long sequence;
+    while (true)
+    {
+      sequence = _head.get();
+      if (sequence - _tail.get() >= _capacity)
+      {
+        if (_overflow == OverflowPolicy.DROP && outcome != Outcome.FAIL)
+        {
+          _dropped.incrementAndGet();
+          return;
+        }
+        LockSupport.unpark(_writer);
+        Thread.yield();
+        continue;
+      }
+      if (_head.compareAndSet(sequence, sequence + 1))
+      {
+        break;
+      }
+    }
+
+    String[] context = _context.get();
+    Slot slot = _slots[(int) (sequence & _mask)];
+    slot.timeMillis = System.currentTimeMillis();
+    slot.thread = Thread.currentThread().getName();
+    slot.story = context[0];
+    slot.step = context[1];
+    slot.element = element;
+    slot.action = action;
+    slot.durationNanos = durationNanos;
+    slot.outcome = outcome;
+    slot.message = message;
+    slot.sequence = sequence;
+  }
+
+  private static void drainForever()
+  {
+    SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+    StringBuilder line = new StringBuilder(256);
+    Date date = new Date();
+    BufferedWriter out = null;
+    try
+    {
+      File file = new File(_path);
+      if (file.getParentFile() != null)
+      {
+        file.getParentFile().mkdirs();
+      }
+      out = new BufferedWriter(new FileWriter(file, true), 64 * 1024);
+      long reportedDrops = 0;
+      while (true)
+      {
+        int written = 0;
+        long next = _tail.get();
+        while (written < _batchSize)
+        {
+          Slot slot = _slots[(int) (next & _mask)];
+          if (slot.sequence != next)
+          {
+            break;
+          }
+          date.setTime(slot.timeMillis);
+          line.setLength(0);
+          slot.format(line, format.format(date));
+          out.write(line.toString());
+          out.newLine();
+          slot.clear();
+          next++;
+          _tail.lazySet(next);
+          written++;
+        }
+
+        long dropped = _dropped.get();
+        if (dropped != reportedDrops)
+        {
+          out.write("Log buffer overflow, " + (dropped - reportedDrops) + " events dropped");
+          out.newLine();
+          reportedDrops = dropped;
+        }
+
+        // Flushed whenever the ring runs empty, a full batch with more waiting stays buffered
+        if (_slots[(int) (next & _mask)].sequence != next)
+        {
+          out.flush();
+          _flushed.set(next);
+          if (written == 0)
+          {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(5));
+          }
+        }
+      }
+    }
+    catch (IOException e)
+    {
+      System.err.println("Log writer stopped: " + e);
+    }
+    finally
+    {
+      if (out != null)
+      {
+        try
+        {
+          out.close();
+        }
+        catch (IOException e)
+        {
+          // Nothing left to report to
+        }
+      }
+    }
+  }
+
+  private static final class Slot
+  {
+    volatile long sequence = -1;
+    long timeMillis;
+    String thread;
+    String story;
+    String step;
+    String element;
+    String action;
+    long durationNanos;
+    Outcome outcome;
+    String message;
+
+    void format(StringBuilder line, String time)
+    {
+      line.append(time).append(" [").append(thread).append("] ").append(outcome);
+      if (story != null)
+      {
+        line.append(" ").append(story);
+      }
+      if (step != null)
+      {
+        line.append(" | ").append(step);
+      }
+      if (element != null)
+      {
+        line.append(" | ").append(element).append(" ").append(action);
+      }
+      if (durationNanos >= 0)
+      {
+        line.append(" (").append(TimeUnit.NANOSECONDS.toMillis(durationNanos)).append(" ms)");
+      }
+      if (message != null)
+      {
+        line.append(" - ").append(message);
+      }
+    }
+
+    void clear()
+    {
+      thread = null;
+      story = null;
+      step = null;
+      element = null;
+      action = null;
+      message = null;
+    }
+  }
+}
+
+/* LatencyHistogram.java core */
+package com.seleniumframework.core;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Log-linear histogram of microsecond latencies, 16 sub-buckets per power of two (about 6% error)
+public class LatencyHistogram
+{
+  private static final int SUB_BITS = 4;
+  private static final int SUB_COUNT = 1 << SUB_BITS;
+  private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_COUNT;
+
+  private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong _count = new AtomicLong();
+  private final AtomicLong _max = new AtomicLong();
+
+  public void record(long nanos)
+  {
+    long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+    _counts.incrementAndGet(indexOf(micros));
+    _count.incrementAndGet();
+    long max;
+    while (micros > (max = _max.get()) && !_max.compareAndSet(max, micros))
+    {
+    }
+  }
+
+  public long getCount()
+  {
+    return _count.get();
+  }
+
+  public long getMaxMicros()
+  {
+    return _max.get();
+  }
+
+  // Non-empty buckets as "index:count" pairs, so histograms exported by separate runs can be added up
+  String getBuckets()
+  {
+    StringBuilder buckets = new StringBuilder();
+    for (int i = 0; i < BUCKETS; i++)
+    {
+      long count = _counts.get(i);
+      if (count > 0)
+      {
+        buckets.append(buckets.length() == 0 ? "" : " ").append(i).append(':').append(count);
+      }
+    }
+    return buckets.toString();
+  }
+
+  void add(String buckets, long maxMicros)
+  {
+    for (String bucket : buckets.trim().isEmpty() ? new String[0] : buckets.trim().split(" "))
+    {
+      int colon = bucket.indexOf(':');
+      long count = Long.parseLong(bucket.substring(colon + 1));
+      _counts.addAndGet(Integer.parseInt(bucket.substring(0, colon)), count);
+      _count.addAndGet(count);
+    }
+    long max;
+    while (maxMicros > (max = _max.get()) && !_max.compareAndSet(max, maxMicros))
+    {
+    }
+  }
+
+  // Upper bound of the bucket holding the given percentile, capped at the recorded max
+  public long getPercentileMicros(double percentile)
+  {
+    long total = _count.get();
+    if (total == 0)
+    {
+      return 0;
+    }
+    long rank = (long) Math.ceil(total * percentile / 100.0);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++)
+    {
+      seen += _counts.get(i);
+      if (seen >= rank)
+      {
+        return Math.min(upperBoundOf(i), _max.get());
+      }
+    }
+    return _max.get();
+  }
+
+  private static int indexOf(long micros)
+  {
+    if (micros < SUB_COUNT)
+    {
+      return (int) micros;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(micros);
+    int sub = (int) ((micros >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1));
+    return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+  }
+
+  private static long upperBoundOf(int index)
+  {
+    if (index < SUB_COUNT)
+    {
+      return index;
+    }
+    int exponent = index / SUB_COUNT + SUB_BITS - 1;
+    long sub = index % SUB_COUNT;
+    long width = 1L << (exponent - SUB_BITS);
+    return ((SUB_COUNT + sub) << (exponent - SUB_BITS)) + width - 1;
+  }
+}
+
+/* Timings.java core */
+package com.seleniumframework.core;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Latency histograms per element action and per test step, exported as JSON at the end of the run
+public final class Timings
+{
+  private static final ConcurrentMap<String, LatencyHistogram> _actions = new ConcurrentHashMap<String, LatencyHistogram>();
+  private static final ConcurrentMap<String, LatencyHistogram> _steps = new ConcurrentHashMap<String, LatencyHistogram>();
+  private static final Pattern ENTRY = Pattern.compile("^\\s*\"((?:[^\"\\\\]|\\\\.)*)\": \\{.*\"maxMs\": ([0-9.]+), \"buckets\": \"([0-9: ]*)\" \\},?$");
+
+  // Name and start time of the step running on this thread
+  private static final ThreadLocal<Object[]> _currentStep = new ThreadLocal<Object[]>();
+
+  private Timings()
+  {
+  }
+
+  public static void recordAction(String locator, String action, long nanos)
+  {
+    histogram(_actions, locator + " | " + action).record(nanos);
+  }
+
+  public static void startStep(String name)
+  {
+    endStep();
+    _currentStep.set(new Object[] { name, System.nanoTime() });
+  }
+
+  // Returns the step's duration in nanoseconds, or -1 when no step was running
+  public static long endStep()
+  {
+    Object[] step = _currentStep.get();
+    if (step == null)
+    {
+      return -1;
+    }
+    _currentStep.remove();
+    long elapsed = System.nanoTime() - (Long) step[1];
+    histogram(_steps, (String) step[0]).record(elapsed);
+    return elapsed;
+  }
+
+  public static Map<String, LatencyHistogram> getActions()
+  {
+    return new TreeMap<String, LatencyHistogram>(_actions);
+  }
+
+  public static Map<String, LatencyHistogram> getSteps()
+  {
+    return new TreeMap<String, LatencyHistogram>(_steps);
+  }
+
+  public static void export(File file)
+  {
+    if (file.getParentFile() != null)
+    {
+      file.getParentFile().mkdirs();
+    }
+    try (PrintWriter out = new PrintWriter(file, "UTF-8"))
+    {
+      out.println("{");
+      out.println("  \"steps\": {");
+      writeHistograms(out, "    ", getSteps(), true);
+      out.println("  },");
+      out.println("  \"actions\": {");
+      writeHistograms(out, "    ", getActions(), true);
+      out.println("  }");
+      out.println("}");
+    }
+    catch (IOException e)
+    {
+      Log.info("Could not write latency report " + file + ": " + e.getMessage());
+    }
+  }
+
+  // Adds the histograms of an exported report, such as a shard's, to this run's
+  static void load(File file) throws IOException
+  {
+    if (!file.isFile())
+    {
+      return;
+    }
+    try (BufferedReader in = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8))
+    {
+      ConcurrentMap<String, LatencyHistogram> histograms = null;
+      String line;
+      while ((line = in.readLine()) != null)
+      {
+        if (line.trim().startsWith("\"steps\""))
+        {
+          histograms = _steps;
+          continue;
+        }
+        if (line.trim().startsWith("\"actions\""))
+        {
+          histograms = _actions;
+          continue;
+        }
+        Matcher entry = ENTRY.matcher(line);
+        if (histograms != null && entry.matches())
+        {
+          long maxMicros = Math.round(Double.parseDouble(entry.group(2)) * 1000);
+          histogram(histograms, unescape(entry.group(1))).add(entry.group(3), maxMicros);
+        }
+      }
+    }
+  }
+
+  static void writeHistograms(PrintWriter out, String indent, Map<String, LatencyHistogram> histograms)
+  {
+    writeHistograms(out, indent, histograms, false);
+  }
+
+  // With buckets the report can be loaded back and merged with others
+  static void writeHistograms(PrintWriter out, String indent, Map<String, LatencyHistogram> histograms, boolean buckets)
+  {
+    int remaining = histograms.size();
+    for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet())
+    {
+      LatencyHistogram histogram = entry.getValue();
+      out.print(indent + "\"" + escape(entry.getKey()) + "\": { \"count\": " + histogram.getCount()
+        + ", \"p50Ms\": " + millis(histogram.getPercentileMicros(50))
+        + ", \"p95Ms\": " + millis(histogram.getPercentileMicros(95))
+        + ", \"p99Ms\": " + millis(histogram.getPercentileMicros(99))
+        + ", \"maxMs\": " + millis(histogram.getMaxMicros())
+        + (buckets ? ", \"buckets\": \"" + histogram.getBuckets() + "\"" : "") + " }");
+      out.println(--remaining > 0 ? "," : "");
+    }
+  }
+
+  private static LatencyHistogram histogram(ConcurrentMap<String, LatencyHistogram> histograms, String key)
+  {
+    LatencyHistogram histogram = histograms.get(key);
+    if (histogram == null)
+    {
+      LatencyHistogram created = new LatencyHistogram();
+      histogram = histograms.putIfAbsent(key, created);
+      if (histogram == null)
+      {
+        histogram = created;
+      }
+    }
+    return histogram;
+  }
+
+  private static String millis(long micros)
+  {
+    return String.format(Locale.ROOT, "%.3f", micros / 1000.0);
+  }
+
+  static String unescape(String text)
+  {
+    StringBuilder unescaped = new StringBuilder(text.length());
+    for (int i = 0; i < text.length(); i++)
+    {
+      char c = text.charAt(i);
+      if (c == '\\' && i + 1 < text.length())
+      {
+        c = text.charAt(++i);
+        if (c == 'u' && i + 4 < text.length())
+        {
+          c = (char) Integer.parseInt(text.substring(i + 1, i + 5), 16);
+          i += 4;
+        }
+      }
+      unescaped.append(c);
+    }
+    return unescaped.toString();
+  }
+
+  static String escape(String text)
+  {
+    StringBuilder escaped = new StringBuilder(text.length() + 8);
+    for (char c : text.toCharArray())
+    {
+      if (c == '"' || c == '\\')
+      {
+        escaped.append('\\').append(c);
+      }
+      else if (c < 0x20)
+      {
+        escaped.append(String.format("\\u%04x", (int) c));
+      }
+      else
+      {
+        escaped.append(c);
+      }
+    }
+    return escaped.toString();
+  }
+}
+
+/* LoadGenerator.java core */
+package com.seleniumframework.core;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Runs a test flow as a load test. Virtual users start spread over the ramp-up and repeat the flow,
+// with think time in between, until the duration is up. Completed iterations and step latencies are
+// bucketed into fixed windows so throughput and percentiles can be followed over the run.
+public final class LoadGenerator
+{
+  public interface VirtualUser
+  {
+    void iteration(int user, long iteration) throws Exception;
+  }
+
+  // Steps ended while a load run is active are recorded here instead of in the test report
+  private static volatile LoadGenerator _running;
+
+  private final String _name;
+  private final int _users = Integer.getInteger("load.users", 10);
+  private final long _rampUpMillis = TimeUnit.SECONDS.toMillis(Long.getLong("load.rampUpSeconds", 10));
+  private final long _thinkTimeMillis = Long.getLong("load.thinkTimeMs", 1000);
+  private final long _durationMillis = TimeUnit.SECONDS.toMillis(Long.getLong("load.durationSeconds", 60));
+  private final long _windowMillis = TimeUnit.SECONDS.toMillis(Long.getLong("load.windowSeconds", 10));
+
+  private final ConcurrentMap<Long, Window> _windows = new ConcurrentHashMap<Long, Window>();
+  private final Window _total = new Window();
+  private volatile long _startMillis;
+  private volatile long _endMillis;
+
+  public LoadGenerator(String name)
+  {
+    _name = name;
+  }
+
+  public int getUsers()
+  {
+    return _users;
+  }
+
+  static boolean isRunning()
+  {
+    return _running != null;
+  }
+
+  static void recordStep(String name, long nanos)
+  {
+    LoadGenerator load = _running;
+    if (load != null)
+    {
+      load.window().step(name).record(nanos);
+      load._total.step(name).record(nanos);
+    }
+  }
+
+  // Blocks until every user has finished, iterations running at the deadline are allowed to complete
+  public void run(final VirtualUser user) throws InterruptedException
+  {
+    if (_running != null)
+    {
+      throw new IllegalStateException("Load run '" + _running._name + "' is already active");
+    }
+    _running = this;
+    _startMillis = System.currentTimeMillis();
+    final long deadline = _startMillis + _durationMillis;
+    Log.info("Load '" + _name + "': " + _users + " users, ramp-up " + _rampUpMillis + " ms, think time "
+      + _thinkTimeMillis + " ms, duration " + _durationMillis + " ms");
+
+    ExecutorService executor = newUserExecutor();
+    try
+    {
+      for (int u = 0; u < _users; u++)
+      {
+        final int id = u;
+        final long startAt = _startMillis + _rampUpMillis * u / _users;
+        executor.execute(() -> runUser(user, id, startAt, deadline));
+      }
+      executor.shutdown();
+      if (!executor.awaitTermination(_durationMillis + TimeUnit.MINUTES.toMillis(5), TimeUnit.MILLISECONDS))
+      {
+        executor.shutdownNow();
+      }
+    }
+    finally
+    {
+      _endMillis = System.currentTimeMillis();
+      _running = null;
+    }
+
+    export(new File(System.getProperty("load.report", "target/load.json")));
+    Log.info(getSummary());
+  }
+
+  public String getSummary()
+  {
+    return String.format(Locale.ROOT, "Load '%s': %d completed, %d failed, %.2f/s", _name, _total.completed.get(),
+      _total.failed.get(), perSecond(_total.completed.get(), Math.max(1, _endMillis - _startMillis)));
+  }
+
+  private void runUser(VirtualUser user, int id, long startAt, long deadline)
+  {
+    try
+    {
+      sleepUntil(startAt);
+      for (long iteration = 0; System.currentTimeMillis() < deadline; iteration++)
+      {
+        try
+        {
+          user.iteration(id, iteration);
+          window().completed.incrementAndGet();
+          _total.completed.incrementAndGet();
+        }
+        catch (Exception | AssertionError e)
+        {
+          // Verifications and page timing budgets fail through AssertionError, the user carries on
+          window().failed.incrementAndGet();
+          _total.failed.incrementAndGet();
+          Log.fail("Virtual user " + id + " iteration " + iteration + " failed: " + e);
+        }
+
+        // Think time varies between half and one and a half times the setting
+        long think = (long) (_thinkTimeMillis * (0.5 + ThreadLocalRandom.current().nextDouble()));
+        sleepUntil(Math.min(deadline, System.currentTimeMillis() + think));
+      }
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  // One virtual thread per user on Java 21 and later, platform threads otherwise
+  private ExecutorService newUserExecutor()
+  {
+    try
+    {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    }
+    catch (ReflectiveOperationException e)
+    {
+      return Executors.newFixedThreadPool(_users);
+    }
+  }
+
+  private static void sleepUntil(long millis) throws InterruptedException
+  {
+    long remaining = millis - System.currentTimeMillis();
+    if (remaining > 0)
+    {
+      Thread.sleep(remaining);
+    }
+  }
+
+  private Window window()
+  {
+    long index = Math.max(0, System.currentTimeMillis() - _startMillis) / _windowMillis;
+    Window window = _windows.get(index);
+    if (window == null)
+    {
+      Window created = new Window();
+      window = _windows.putIfAbsent(index, created);
+      if (window == null)
+      {
+        window = created;
+      }
+    }
+    return window;
+  }
+
+  private void export(File file)
+  {
+    if (file.getParentFile() != null)
+    {
+      file.getParentFile().mkdirs();
+    }
+    long elapsed = Math.max(1, _endMillis - _startMillis);
+    try (PrintWriter out = new PrintWriter(file, "UTF-8"))
+    {
+      out.println("{");
+      out.println("  \"name\": \"" + Timings.escape(_name) + "\", \"users\": " + _users + ", \"elapsedMs\": " + elapsed
+        + ", \"windowMs\": " + _windowMillis + ",");
+      out.println("  \"completed\": " + _total.completed.get() + ", \"failed\": " + _total.failed.get()
+        + ", \"throughputPerSec\": " + String.format(Locale.ROOT, "%.3f", perSecond(_total.completed.get(), elapsed)) + ",");
+      out.println("  \"steps\": {");
+      Timings.writeHistograms(out, "    ", new TreeMap<String, LatencyHistogram>(_total.steps));
+      out.println("  },");
+      out.println("  \"windows\": [");
+      Map<Long, Window> windows = new TreeMap<Long, Window>(_windows);
+      int remaining = windows.size();
+      for (Map.Entry<Long, Window> entry : windows.entrySet())
+      {
+        Window window = entry.getValue();
+        long start = entry.getKey() * _windowMillis;
+        long length = Math.max(1, Math.min(_windowMillis, elapsed - start));
+        out.println("    { \"startMs\": " + start + ", \"completed\": " + window.completed.get() + ", \"failed\": "
+          + window.failed.get() + ", \"throughputPerSec\": "
+          + String.format(Locale.ROOT, "%.3f", perSecond(window.completed.get(), length)) + ", \"steps\": {");
+        Timings.writeHistograms(out, "        ", new TreeMap<String, LatencyHistogram>(window.steps));
+        out.println(--remaining > 0 ? "    } }," : "    } }");
+      }
+      out.println("  ]");
+      out.println("}");
+    }
+    catch (IOException e)
+    {
+      Log.info("Could not write load report " + file + ": " + e.getMessage());
+    }
+  }
+
+  private static double perSecond(long count, long millis)
+  {
+    return count * 1000.0 / millis;
+  }
+
+  private static final class Window
+  {
+    final AtomicLong completed = new AtomicLong();
+    final AtomicLong failed = new AtomicLong();
+    final ConcurrentMap<String, LatencyHistogram> steps = new ConcurrentHashMap<String, LatencyHistogram>();
+
+    LatencyHistogram step(String name)
+    {
+      LatencyHistogram histogram = steps.get(name);
+      if (histogram == null)
+      {
+        LatencyHistogram created = new LatencyHistogram();
+        histogram = steps.putIfAbsent(name, created);
+        if (histogram == null)
+        {
+          histogram = created;
+        }
+      }
+      return histogram;
+    }
+  }
+}
+
+/* FastProfile.java core */
+package com.seleniumframework.core;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.chrome.ChromeDriver;
+import org.openqa.selenium.chrome.ChromeOptions;
+
+// Headless Chrome launch profile that skips first-run work and blocks requests
+// none of the page objects need. Selected with -Dbrowser.profile=fast.
+public final class FastProfile
+{
+  private static final String NO_ANIMATIONS_JS =
+    "document.addEventListener('DOMContentLoaded', function () {"
+    + "  var style = document.createElement('style');"
+    + "  style.textContent = '*, *::before, *::after { transition: none !important; animation: none !important; caret-color: transparent !important; }';"
+    + "  document.head.appendChild(style);"
+    + "});";
+
+  private static final String LOAD_TIME_JS =
+    "var n = performance.getEntriesByType('navigation')[0];"
+    + "return n ? n.loadEventEnd - n.startTime : performance.timing.loadEventEnd - performance.timing.navigationStart;";
+
+  public static final class Rule
+  {
+    private final String _name;
+    private final List<String> _patterns;
+
+    public Rule(String name, String... patterns)
+    {
+      _name = name;
+      _patterns = Collections.unmodifiableList(Arrays.asList(patterns));
+    }
+
+    public String getName()
+    {
+      return _name;
+    }
+
+    public List<String> getPatterns()
+    {
+      return _patterns;
+    }
+  }
+
+  private static final List<Rule> _rules = new ArrayList<Rule>();
+
+  static
+  {
+    _rules.add(new Rule("images", extensions("png", "jpg", "jpeg", "gif", "webp", "avif", "svg", "ico")));
+    _rules.add(new Rule("fonts", extensions("woff", "woff2", "ttf", "otf", "eot")));
+    _rules.add(new Rule("media", extensions("mp4", "webm", "mp3", "ogg")));
+    _rules.add(new Rule("analytics", "*google-analytics.com*", "*googletagmanager.com*", "*doubleclick.net*",
+      "*facebook.net*", "*hotjar.com*"));
+    String extra = System.getProperty("browser.block.patterns", "").trim();
+    if (!extra.isEmpty())
+    {
+      _rules.add(new Rule("custom", extra.split("\\s*,\\s*")));
+    }
+  }
+
+  private FastProfile()
+  {
+  }
+
+  public static boolean isEnabled()
+  {
+    return System.getProperty("browser.profile", "").equalsIgnoreCase("fast");
+  }
+
+  public static List<Rule> getRules()
+  {
+    return Collections.unmodifiableList(_rules);
+  }
+
+  // Matches the extension with or without a query string or fragment, "logo.png?v=3" as well as "logo.png".
+  // Resources served without an extension can only be told apart by type, which needs request interception.
+  private static String[] extensions(String... extensions)
+  {
+    List<String> patterns = new ArrayList<String>();
+    for (String extension : extensions)
+    {
+      patterns.add("*." + extension);
+      patterns.add("*." + extension + "?*");
+      patterns.add("*." + extension + "#*");
+    }
+    return patterns.toArray(new String[patterns.size()]);
+  }
+
+  public static ChromeOptions options()
+  {
+    ChromeOptions options = new ChromeOptions();
+    options.addArguments("--headless=new", "--window-size=1366,900", "--no-first-run", "--no-default-browser-check",
+      "--disable-extensions", "--disable-component-extensions-with-background-pages", "--disable-background-networking",
+      "--disable-sync", "--disable-default-apps", "--mute-audio", "--force-prefers-reduced-motion");
+    return options;
+  }
+
+  // Blocks every rule's patterns and turns off CSS animations on each new document
+  public static void apply(ChromeDriver driver)
+  {
+    block(driver, _rules);
+    Map<String, Object> script = new HashMap<String, Object>();
+    script.put("source", NO_ANIMATIONS_JS);
+    driver.executeCdpCommand("Page.addScriptToEvaluateOnNewDocument", script);
+  }
+
+  // Loads the page with no rules, each rule on its own and all rules, and reports what each one saves
+  public static void measure(ChromeDriver driver, String url)
+  {
+    double baseline = loadTime(driver, url, Collections.<Rule>emptyList());
+    report("Fast profile baseline page load " + url + ": " + Math.round(baseline) + " ms");
+    for (Rule rule : _rules)
+    {
+      double time = loadTime(driver, url, Collections.singletonList(rule));
+      report("Fast profile rule '" + rule.getName() + "' saves " + Math.round(baseline - time) + " ms");
+    }
+    double all = loadTime(driver, url, _rules);
+    report("Fast profile all rules save " + Math.round(baseline - all) + " ms");
+    block(driver, _rules);
+  }
+
+  private static void report(String text)
+  {
+    Log.info(text);
+    Report.note(text);
+  }
+
+  private static double loadTime(ChromeDriver driver, String url, List<Rule> rules)
+  {
+    block(driver, rules);
+    driver.executeCdpCommand("Network.clearBrowserCache", new HashMap<String, Object>());
+    driver.get(url);
+    Object time = ((JavascriptExecutor) driver).executeScript(LOAD_TIME_JS);
+    return time instanceof Number ? ((Number) time).doubleValue() : 0;
+  }
+
+  private static void block(ChromeDriver driver, List<Rule> rules)
+  {
+    List<String> patterns = new ArrayList<String>();
+    for (Rule rule : rules)
+    {
+      patterns.addAll(rule.getPatterns());
+    }
+    driver.executeCdpCommand("Network.enable", new HashMap<String, Object>());
+    Map<String, Object> params = new HashMap<String, Object>();
+    params.put("urls", patterns);
+    driver.executeCdpCommand("Network.setBlockedURLs", params);
+  }
+}
+
+/* PageTiming.java core */
+package com.seleniumframework.core;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+
+// Browser-side timing of each test step: Navigation Timing when the step loaded a new document, plus
+// the resources fetched and long tasks run while the step lasted, so section transitions are covered too.
+// A test can give its steps budgets that fail it, and every sample is appended to a file for trends.
+public final class PageTiming
+{
+  public enum Metric
+  {
+    // Navigation steps: domInteractive. Other steps: when the last fetch or long task they caused ended.
+    INTERACTIVE,
+    DOM_CONTENT_LOADED,
+    LOAD,
+    LONG_TASKS
+  }
+
+  private static final boolean _enabled = Boolean.parseBoolean(System.getProperty("perf.timing", "true"));
+  private static final boolean _enforce = Boolean.parseBoolean(System.getProperty("perf.budgets.enforce", "true"));
+  private static final long _runMillis = System.currentTimeMillis();
+  private static final File _file = new File(ShardPlan.qualify(System.getProperty("perf.timing.path", "target/page-timing.jsonl")));
+  private static final int _bufferSize = 8 * 1024;
+
+  // Marks the step start in the page and starts buffering long tasks for this document
+  private static final String MARK_JS =
+    "if (!window.__sfLongTasks) {"
+    + "  window.__sfLongTasks = [];"
+    + "  try {"
+    + "    new PerformanceObserver(function (list) {"
+    + "      var entries = list.getEntries();"
+    + "      for (var i = 0; i < entries.length; i++) {"
+    + "        window.__sfLongTasks.push({ start: entries[i].startTime, duration: entries[i].duration });"
+    + "      }"
+    + "    }).observe({ type: 'longtask', buffered: true });"
+    + "  } catch (e) {}"
+    + "  if (performance.setResourceTimingBufferSize) { performance.setResourceTimingBufferSize(2000); }"
+    + "}"
+    + "window.__sfStepStart = performance.now();";
+
+  // A missing step mark means the step replaced the document, its navigation timing is then reported
+  private static final String COLLECT_JS =
+    "var start = window.__sfStepStart, navigated = start === undefined;"
+    + "if (navigated) { start = 0; }"
+    + "var r = { navigated: navigated, elapsed: performance.now() - start, resources: 0, transferBytes: 0,"
+    + "  resourceEnd: 0, longTasks: 0, longTaskMs: 0, longTaskEnd: 0 };"
+    + "if (navigated) {"
+    + "  var nav = performance.getEntriesByType('navigation')[0];"
+    + "  if (nav) {"
+    + "    r.ttfb = nav.responseStart; r.domInteractive = nav.domInteractive;"
+    + "    r.domContentLoaded = nav.domContentLoadedEventEnd; r.load = nav.loadEventEnd;"
+    + "  }"
+    + "}"
+    + "var res = performance.getEntriesByType('resource');"
+    + "for (var i = 0; i < res.length; i++) {"
+    + "  if (res[i].startTime < start) { continue; }"
+    + "  r.resources++; r.transferBytes += res[i].transferSize || 0;"
+    + "  r.resourceEnd = Math.max(r.resourceEnd, res[i].responseEnd - start);"
+    + "}"
+    + "var tasks = window.__sfLongTasks || [];"
+    + "for (var j = 0; j < tasks.length; j++) {"
+    + "  if (tasks[j].start < start) { continue; }"
+    + "  r.longTasks++; r.longTaskMs += tasks[j].duration;"
+    + "  r.longTaskEnd = Math.max(r.longTaskEnd, tasks[j].start + tasks[j].duration - start);"
+    + "}"
+    + "r.interactive = navigated ? (r.domInteractive || 0) : Math.max(r.resourceEnd, r.longTaskEnd);"
+    + "delete window.__sfStepStart;"
+    + "return r;";
+
+  // Step name -> budgets for it, declared by the test running on this thread
+  private static final ThreadLocal<Map<String, Map<Metric, Long>>> _budgets = new ThreadLocal<Map<String, Map<Metric, Long>>>()
+  {
+    @Override
+    protected Map<String, Map<Metric, Long>> initialValue()
+    {
+      return new HashMap<String, Map<Metric, Long>>();
+    }
+  };
+
+  private static Writer _out;
+  private static boolean _closed;
+
+  private PageTiming()
+  {
+  }
+
+  public static boolean isEnabled()
+  {
+    return _enabled;
+  }
+
+  // The step of the running test fails when the metric goes over maxMillis
+  public static void budget(String step, Metric metric, long maxMillis)
+  {
+    Map<Metric, Long> budgets = _budgets.get().get(step);
+    if (budgets == null)
+    {
+      budgets = new EnumMap<Metric, Long>(Metric.class);
+      _budgets.get().put(step, budgets);
+    }
+    budgets.put(metric, maxMillis);
+  }
+
+  // Drops the budgets of the test that ended and pushes its samples to disk
+  static void endTest()
+  {
+    _budgets.remove();
+    flush();
+  }
+
+  // Called when a step starts, does nothing until the thread has a browser
+  static void markStep()
+  {
+    WebDriver driver = DriverContext.current();
+    if (!_enabled || driver == null)
+    {
+      return;
+    }
+    try
+    {
+      ((JavascriptExecutor) driver).executeScript(MARK_JS);
+    }
+    catch (WebDriverException e)
+    {
+      // No page to mark yet, the step is then reported as a navigation
+    }
+  }
+
+  // Timing of the step that just ended, null when it can't be read from the page
+  static Sample collect(String story, String step)
+  {
+    WebDriver driver = DriverContext.current();
+    if (!_enabled || driver == null)
+    {
+      return null;
+    }
+    Object result;
+    try
+    {
+      result = ((JavascriptExecutor) driver).executeScript(COLLECT_JS);
+    }
+    catch (WebDriverException e)
+    {
+      return null;
+    }
+    if (!(result instanceof Map))
+    {
+      return null;
+    }
+    Sample sample = new Sample((Map<?, ?>) result);
+    write("{\"runMs\":" + _runMillis + ",\"story\":\"" + Timings.escape(String.valueOf(story)) + "\",\"step\":\""
+      + Timings.escape(step) + "\"," + sample.toJson() + "}");
+    return sample;
+  }
+
+  // Description of the first budget the step went over, null when it kept to all of them
+  static String checkBudgets(String step, Sample sample)
+  {
+    Map<Metric, Long> budgets = _budgets.get().get(step);
+    if (!_enforce || budgets == null)
+    {
+      return null;
+    }
+    for (Map.Entry<Metric, Long> budget : budgets.entrySet())
+    {
+      long value = sample.get(budget.getKey());
+      if (value > budget.getValue())
+      {
+        return "Step '" + step + "' is over budget: " + budget.getKey().name().toLowerCase() + " " + value
+          + " ms, budget " + budget.getValue() + " ms";
+      }
+    }
+    return null;
+  }
+
+  // Closes the sample file, later samples are dropped
+  public static synchronized void close()
+  {
+    _closed = true;
+    if (_out != null)
+    {
+      try
+      {
+        _out.close();
+      }
+      catch (IOException e)
+      {
+        Log.info("Could not write page timings " + _file + ": " + e.getMessage());
+      }
+      _out = null;
+    }
+  }
+
+  // Samples are appended as they are taken, one file collects the trend over many runs
+  private static synchronized void write(String line)
+  {
+    if (_closed)
+    {
+      return;
+    }
+    try
+    {
+      if (_out == null)
+      {
+        if (_file.getParentFile() != null)
+        {
+          _file.getParentFile().mkdirs();
+        }
+        _out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(_file, true), StandardCharsets.UTF_8), _bufferSize);
+      }
+      _out.write(line);
+      _out.write('\n');
+    }
+    catch (IOException e)
+    {
+      Log.info("Could not write page timings " + _file + ": " + e.getMessage());
+      _closed = true;
+    }
+  }
+
+  private static synchronized void flush()
+  {
+    if (_out != null)
+    {
+      try
+      {
+        _out.flush();
+      }
+      catch (IOException e)
+      {
+        Log.info("Could not write page timings " + _file + ": " + e.getMessage());
+      }
+    }
+  }
+
+  public static final class Sample
+  {
+    private final boolean _navigated;
+    private final long _elapsed;
+    private final long _ttfb;
+    private final long _domInteractive;
+    private final long _domContentLoaded;
+    private final long _load;
+    private final long _interactive;
+    private final long _resources;
+    private final long _transferBytes;
+    private final long _longTasks;
+    private final long _longTaskMillis;
+
+    Sample(Map<?, ?> values)
+    {
+      _navigated = Boolean.TRUE.equals(values.get("navigated"));
+      _elapsed = millis(values, "elapsed");
+      _ttfb = millis(values, "ttfb");
+      _domInteractive = millis(values, "domInteractive");
+      _domContentLoaded = millis(values, "domContentLoaded");
+      _load = millis(values, "load");
+      _interactive = millis(values, "interactive");
+      _resources = millis(values, "resources");
+      _transferBytes = millis(values, "transferBytes");
+      _longTasks = millis(values, "longTasks");
+      _longTaskMillis = millis(values, "longTaskMs");
+    }
+
+    public boolean isNavigation()
+    {
+      return _navigated;
+    }
+
+    // Milliseconds, -1 when the metric doesn't apply to the step
+    public long get(Metric metric)
+    {
+      switch (metric)
+      {
+        case INTERACTIVE:
+          return _interactive;
+        case DOM_CONTENT_LOADED:
+          return _navigated ? _domContentLoaded : -1;
+        case LOAD:
+          return _navigated ? _load : -1;
+        default:
+          return _longTaskMillis;
+      }
+    }
+
+    String toJson()
+    {
+      return "\"navigation\":" + _navigated + ",\"elapsedMs\":" + _elapsed + ",\"interactiveMs\":" + _interactive
+        + (_navigated ? ",\"ttfbMs\":" + _ttfb + ",\"domInteractiveMs\":" + _domInteractive + ",\"domContentLoadedMs\":"
+          + _domContentLoaded + ",\"loadMs\":" + _load : "")
+        + ",\"resources\":" + _resources + ",\"transferBytes\":" + _transferBytes + ",\"longTasks\":" + _longTasks
+        + ",\"longTaskMs\":" + _longTaskMillis;
+    }
+
+    @Override
+    public String toString()
+    {
+      return "interactive " + _interactive + " ms"
+        + (_navigated ? ", DOMContentLoaded " + _domContentLoaded + " ms, load " + _load + " ms" : "")
+        + ", " + _resources + " resources (" + _transferBytes / 1024 + " KB)"
+        + ", " + _longTasks + " long tasks (" + _longTaskMillis + " ms)";
+    }
+
+    private static long millis(Map<?, ?> values, String key)
+    {
+      Object value = values.get(key);
+      return value instanceof Number ? Math.round(((Number) value).doubleValue()) : -1;
+    }
+  }
+}
+
+/* Report.java core */
+package com.seleniumframework.core;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Appends every finished step and test, and notes about the run, to results.jsonl and report.html as it
+// happens, so a run that dies halfway still leaves a readable report. The summary is written once at the end.
+public final class Report
+{
+  private static final File _dir = new File(ShardPlan.qualify(System.getProperty("report.dir", "target/report")));
+  private static final Pattern DURATION = Pattern.compile("\"durationMs\":(\\d+)");
+  private static final int _bufferSize = 8 * 1024;
+
+  private static final AtomicInteger _passed = new AtomicInteger();
+  private static final AtomicInteger _failed = new AtomicInteger();
+  private static final AtomicInteger _skipped = new AtomicInteger();
+  private static final long _startMillis = System.currentTimeMillis();
+
+  private static final List<String> _notes = new ArrayList<String>();
+
+  private static Writer _json;
+  private static Writer _html;
+  private static boolean _finished;
+
+  private Report()
+  {
+  }
+
+  // Step rows carry their story, so rows of parallel tests can be told apart in the table
+  public static synchronized void step(String story, String step, long durationMillis, String outcome)
+  {
+    if (!open())
+    {
+      return;
+    }
+    write("{\"type\":\"step\",\"story\":" + quote(story) + ",\"step\":" + quote(step)
+      + ",\"durationMs\":" + durationMillis + ",\"outcome\":" + quote(outcome) + "}",
+      "<tr class=\"step " + outcome + "\"><td>" + html(story) + "</td><td>" + html(step) + "</td><td>" + durationMillis + " ms</td><td>" + outcome + "</td></tr>",
+      false);
+  }
+
+  public static synchronized void test(String name, String story, long durationMillis, String outcome, String error)
+  {
+    if (!open())
+    {
+      return;
+    }
+    if (outcome.equals("PASS"))
+    {
+      _passed.incrementAndGet();
+    }
+    else if (outcome.equals("FAIL"))
+    {
+      _failed.incrementAndGet();
+    }
+    else
+    {
+      _skipped.incrementAndGet();
+    }
+    write("{\"type\":\"test\",\"name\":" + quote(name) + ",\"story\":" + quote(story)
+      + ",\"durationMs\":" + durationMillis + ",\"outcome\":" + quote(outcome) + ",\"error\":" + quote(error) + "}",
+      "<tr class=\"test " + outcome + "\"><td>" + html(name) + "</td><td>" + html(story) + "</td><td>" + durationMillis
+        + " ms</td><td>" + outcome + (error == null ? "" : " - " + html(error)) + "</td></tr>",
+      true);
+  }
+
+  // A finding about the run as a whole, listed again under the summary
+  public static synchronized void note(String text)
+  {
+    if (!open())
+    {
+      return;
+    }
+    _notes.add(text);
+    write("{\"type\":\"note\",\"text\":" + quote(text) + "}", "<tr class=\"note\"><td colspan=\"4\">" + html(text) + "</td></tr>",
+      true);
+  }
+
+  public static File getDir()
+  {
+    return _dir;
+  }
+
+  // True when tests ran and none of them failed
+  public static boolean isPassing()
+  {
+    return _failed.get() == 0 && _passed.get() > 0;
+  }
+
+  // Close the table and write the run summary, later results are ignored
+  public static synchronized void finish()
+  {
+    finish(System.currentTimeMillis() - _startMillis);
+  }
+
+  // Replays the results of shard runs into this report, the summary takes the longest shard's duration
+  static synchronized void merge(List<File> dirs) throws IOException
+  {
+    long longest = 0;
+    for (File dir : dirs)
+    {
+      File results = new File(dir, "results.jsonl");
+      if (results.isFile())
+      {
+        try (BufferedReader in = Files.newBufferedReader(results.toPath(), StandardCharsets.UTF_8))
+        {
+          String line;
+          while ((line = in.readLine()) != null)
+          {
+            Map<String, String> fields = parse(line);
+            if ("step".equals(fields.get("type")))
+            {
+              step(fields.get("story"), fields.get("step"), Long.parseLong(fields.get("durationMs")), fields.get("outcome"));
+            }
+            else if ("test".equals(fields.get("type")))
+            {
+              test(fields.get("name"), fields.get("story"), Long.parseLong(fields.get("durationMs")), fields.get("outcome"),
+                fields.get("error"));
+            }
+            else if ("note".equals(fields.get("type")))
+            {
+              note(fields.get("text"));
+            }
+          }
+        }
+      }
+
+      File summary = new File(dir, "summary.json");
+      if (summary.isFile())
+      {
+        Matcher matcher = DURATION.matcher(new String(Files.readAllBytes(summary.toPath()), StandardCharsets.UTF_8));
+        if (matcher.find())
+        {
+          longest = Math.max(longest, Long.parseLong(matcher.group(1)));
+        }
+      }
+    }
+    finish(longest);
+  }
+
+  private static void finish(long elapsed)
+  {
+    if (!open())
+    {
+      return;
+    }
+    _finished = true;
+    String summary = "passed " + _passed.get() + ", failed " + _failed.get() + ", skipped " + _skipped.get()
+      + " in " + elapsed / 1000 + " s";
+    StringBuilder notesHtml = new StringBuilder();
+    StringBuilder notesJson = new StringBuilder();
+    for (String note : _notes)
+    {
+      notesHtml.append("<li>").append(html(note)).append("</li>");
+      notesJson.append(notesJson.length() == 0 ? "" : ",").append(quote(note));
+    }
+    try
+    {
+      _html.write("</table>\n<h2>Summary</h2>\n<p>" + summary + "</p>\n"
+        + (_notes.isEmpty() ? "" : "<ul>" + notesHtml + "</ul>\n") + "</body>\n</html>\n");
+      _html.close();
+      _json.close();
+      try (Writer index = new OutputStreamWriter(new FileOutputStream(new File(_dir, "summary.json")), StandardCharsets.UTF_8))
+      {
+        index.write("{\"passed\":" + _passed.get() + ",\"failed\":" + _failed.get() + ",\"skipped\":" + _skipped.get()
+          + ",\"durationMs\":" + elapsed + ",\"notes\":[" + notesJson + "],\"results\":\"results.jsonl\",\"report\":\"report.html\"}\n");
+      }
+    }
+    catch (IOException e)
+    {
+      Log.info("Could not finish the report: " + e.getMessage());
+    }
+  }
+
+  private static boolean open()
+  {
+    if (_finished)
+    {
+      return false;
+    }
+    if (_json != null)
+    {
+      return true;
+    }
+    try
+    {
+      _dir.mkdirs();
+      _json = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(_dir, "results.jsonl")), StandardCharsets.UTF_8), _bufferSize);
+      _html = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(_dir, "report.html")), StandardCharsets.UTF_8), _bufferSize);
+      _html.write("<!DOCTYPE html>\n<html>\n<head><meta charset=\"utf-8\"><title>Test report</title>\n"
+        + "<style>td{padding:2px 8px}.FAIL{color:#b00}.SKIP{color:#888}tr.step td{font-size:90%}</style></head>\n<body>\n"
+        + "<h1>Test report</h1>\n<table>\n<tr><th>Test</th><th>Story / step</th><th>Duration</th><th>Outcome</th></tr>\n");
+      _html.flush();
+      return true;
+    }
+    catch (IOException e)
+    {
+      Log.info("Could not open the report in " + _dir + ": " + e.getMessage());
+      _finished = true;
+      return false;
+    }
+  }
+
+  // Steps stay in the small write buffer, every finished test is pushed to disk
+  private static void write(String json, String html, boolean flush)
+  {
+    try
+    {
+      _json.write(json);
+      _json.write('\n');
+      _html.write(html);
+      _html.write('\n');
+      if (flush)
+      {
+        _json.flush();
+        _html.flush();
+      }
+    }
+    catch (IOException e)
+    {
+      Log.info("Could not write to the report: " + e.getMessage());
+    }
+  }
+
+  // Reads back one line of results.jsonl, values are strings, numbers or null
+  private static Map<String, String> parse(String json)
+  {
+    Map<String, String> fields = new HashMap<String, String>();
+    int i = json.indexOf('{') + 1;
+    while (true)
+    {
+      int keyStart = json.indexOf('"', i);
+      if (i == 0 || keyStart < 0)
+      {
+        return fields;
+      }
+      StringBuilder key = new StringBuilder();
+      i = json.indexOf(':', unquote(json, keyStart + 1, key)) + 1;
+      while (json.charAt(i) == ' ')
+      {
+        i++;
+      }
+      if (json.charAt(i) == '"')
+      {
+        StringBuilder value = new StringBuilder();
+        i = unquote(json, i + 1, value);
+        fields.put(key.toString(), value.toString());
+      }
+      else
+      {
+        int end = i;
+        while (end < json.length() && json.charAt(end) != ',' && json.charAt(end) != '}')
+        {
+          end++;
+        }
+        String value = json.substring(i, end).trim();
+        fields.put(key.toString(), value.equals("null") ? null : value);
+        i = end;
+      }
+      i = json.indexOf(',', i) + 1;
+    }
+  }
+
+  // Returns the index after the closing quote
+  private static int unquote(String json, int i, StringBuilder text)
+  {
+    while (i < json.length())
+    {
+      char c = json.charAt(i++);
+      if (c == '"')
+      {
+        break;
+      }
+      if (c == '\\')
+      {
+        char escaped = json.charAt(i++);
+        if (escaped == 'u')
+        {
+          text.append((char) Integer.parseInt(json.substring(i, i + 4), 16));
+          i += 4;
+          continue;
+        }
+        c = escaped;
+      }
+      text.append(c);
+    }
+    return i;
+  }
+
+  private static String quote(String text)
+  {
+    return text == null ? "null" : "\"" + Timings.escape(text) + "\"";
+  }
+
+  private static String html(String text)
+  {
+    if (text == null)
+    {
+      return "";
+    }
+    return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+  }
+}
+
+/* Screenshot.java core */
+package com.seleniumframework.core;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import org.openqa.selenium.OutputType;
+import org.openqa.selenium.TakesScreenshot;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+
+// The test thread only grabs the raw PNG, decoding, scaling, compressing and writing happen
+// on a background thread within a disk budget for the whole run
+public final class Screenshot
+{
+  public enum Mode
+  {
+    OFF, FAILURE, ALWAYS
+  }
+
+  private static final Mode _mode = Mode.valueOf(System.getProperty("screenshot.mode", "FAILURE").toUpperCase());
+  private static final File _dir = new File(ShardPlan.qualify(System.getProperty("screenshot.dir", "target/screenshots")));
+  private static final double _scale = Double.parseDouble(System.getProperty("screenshot.scale", "0.5"));
+  private static final float _quality = Float.parseFloat(System.getProperty("screenshot.quality", "0.7"));
+  private static final String _format = System.getProperty("screenshot.format", "jpg");
+  private static final long _budgetBytes = Long.getLong("screenshot.budgetMb", 200) * 1024 * 1024;
+
+  private static final AtomicLong _bytesWritten = new AtomicLong();
+  private static final AtomicInteger _sequence = new AtomicInteger();
+  private static final ExecutorService _encoder = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+    new ArrayBlockingQueue<Runnable>(32), new ThreadFactory()
+    {
+      public Thread newThread(Runnable runnable)
+      {
+        Thread thread = new Thread(runnable, "screenshot-encoder");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+
+  // Set once a failure has been captured in the current test, so it isn't captured twice
+  private static final ThreadLocal<Boolean> _captured = new ThreadLocal<Boolean>();
+
+  private Screenshot()
+  {
+  }
+
+  public static void onFailure(String name)
+  {
+    if (_mode != Mode.OFF && _captured.get() == null)
+    {
+      _captured.set(Boolean.TRUE);
+      capture("FAIL " + name);
+    }
+  }
+
+  public static void onStep(String name)
+  {
+    if (_mode == Mode.ALWAYS)
+    {
+      capture(name);
+    }
+  }
+
+  public static boolean capturedFailure()
+  {
+    return _captured.get() != null;
+  }
+
+  public static void reset()
+  {
+    _captured.remove();
+  }
+
+  public static void capture(String name)
+  {
+    WebDriver driver = DriverContext.current();
+    if (driver == null || _bytesWritten.get() >= _budgetBytes)
+    {
+      return;
+    }
+
+    final byte[] png;
+    try
+    {
+      png = ((TakesScreenshot) driver).getScreenshotAs(OutputType.BYTES);
+    }
+    catch (WebDriverException e)
+    {
+      Log.info("Screenshot failed for " + name + ": " + e.getMessage());
+      return;
+    }
+
+    final File file = new File(_dir, String.format("%05d_%s.%s", _sequence.incrementAndGet(),
+      name.replaceAll("[^A-Za-z0-9._-]+", "_"), _format));
+    try
+    {
+      _encoder.execute(new Runnable()
+      {
+        public void run()
+        {
+          write(png, file);
+        }
+      });
+    }
+    catch (RejectedExecutionException e)
+    {
+      Log.info("Screenshot queue full, skipped " + file.getName());
+    }
+  }
+
+  // Wait for queued screenshots to reach the disk
+  public static void shutdown()
+  {
+    _encoder.shutdown();
+    try
+    {
+      _encoder.awaitTermination(30, TimeUnit.SECONDS);
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void write(byte[] png, File file)
+  {
+    try
+    {
+      _dir.mkdirs();
+      BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+      if (image == null)
+      {
+        return;
+      }
+
+      // JPEG has no alpha channel, and scaling goes through the same copy
+      int width = Math.max(1, (int) (image.getWidth() * _scale));
+      int height = Math.max(1, (int) (image.getHeight() * _scale));
+      BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+      Graphics2D graphics = scaled.createGraphics();
+      graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      graphics.drawImage(image, 0, 0, width, height, null);
+      graphics.dispose();
+
+      Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(_format);
+      if (!writers.hasNext())
+      {
+        return;
+      }
+      ImageWriter writer = writers.next();
+      ImageWriteParam param = writer.getDefaultWriteParam();
+      if (param.canWriteCompressed())
+      {
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(_quality);
+      }
+      try (ImageOutputStream out = ImageIO.createImageOutputStream(file))
+      {
+        writer.setOutput(out);
+        writer.write(null, new IIOImage(scaled, null, null), param);
+      }
+      finally
+      {
+        writer.dispose();
+      }
+
+      if (_bytesWritten.addAndGet(file.length()) >= _budgetBytes)
+      {
+        Log.info("Screenshot disk budget of " + (_budgetBytes / (1024 * 1024)) + " MB reached, no more screenshots this run");
+      }
+    }
+    catch (IOException e)
+    {
+      Log.info("Could not write screenshot " + file + ": " + e.getMessage());
+    }
+  }
+}
+
+/* SiteServer.java core */
+package com.seleniumframework.core;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+// Local stand-in for the site under test. RECORD proxies every request to the live site and
+// archives the responses, REPLAY serves them from the archive without touching the network.
+// A recording is staged next to the archive and only replaces it when the suite passed, so a failing
+// or aborted run never leaves partial or error responses behind.
+public class SiteServer
+{
+  public enum Mode
+  {
+    LIVE, RECORD, REPLAY
+  }
+
+  private static final Mode _mode = Mode.valueOf(System.getProperty("site.mode", "LIVE").toUpperCase());
+  private static final File _archiveRoot = new File(System.getProperty("site.archive", "src/test/resources/site-archive"));
+  private static final Map<String, SiteServer> _servers = new HashMap<String, SiteServer>();
+
+  private final String _origin;
+  private final File _dir;
+  private final File _staging;
+  private final ConcurrentMap<String, Recorded> _responses = new ConcurrentHashMap<String, Recorded>();
+  private HttpServer _server;
+  private String _baseUrl;
+
+  private SiteServer(String origin, File dir)
+  {
+    _origin = origin;
+    _dir = dir;
+    _staging = new File(ShardPlan.qualify(dir.getPath() + ".recording"));
+  }
+
+  public static Mode getMode()
+  {
+    return _mode;
+  }
+
+  // Point a live site URL at the local server for its origin, unchanged in LIVE mode
+  public static synchronized String rewrite(String url)
+  {
+    if (_mode == Mode.LIVE)
+    {
+      return url;
+    }
+
+    URI uri = URI.create(url);
+    String origin = uri.getScheme() + "://" + uri.getRawAuthority();
+    SiteServer server = _servers.get(origin);
+    if (server == null)
+    {
+      server = new SiteServer(origin, new File(_archiveRoot, uri.getHost()));
+      server.start();
+      _servers.put(origin, server);
+    }
+    return server._baseUrl + url.substring(origin.length());
+  }
+
+  // Stops the servers, a RECORD run's responses replace the archive only when the suite passed
+  public static synchronized void stopAll(boolean passed)
+  {
+    for (SiteServer server : _servers.values())
+    {
+      server._server.stop(0);
+      if (_mode == Mode.RECORD)
+      {
+        server.commitRecording(passed);
+      }
+    }
+    _servers.clear();
+  }
+
+  private void commitRecording(boolean passed)
+  {
+    if (!_staging.isDirectory())
+    {
+      return;
+    }
+    if (!passed)
+    {
+      Log.info("Suite did not pass, kept the site archive " + _dir + ", this run's recording is in " + _staging);
+      return;
+    }
+    try
+    {
+      File previous = new File(_dir.getPath() + ".previous");
+      deleteTree(previous);
+      if (_dir.exists())
+      {
+        Files.move(_dir.toPath(), previous.toPath());
+      }
+      Files.move(_staging.toPath(), _dir.toPath());
+      deleteTree(previous);
+      Log.info("Site archive " + _dir + " replaced with this run's recording");
+    }
+    catch (IOException e)
+    {
+      Log.info("Could not replace the site archive " + _dir + " with " + _staging + ": " + e.getMessage());
+    }
+  }
+
+  private static void deleteTree(File file) throws IOException
+  {
+    File[] children = file.listFiles();
+    if (children != null)
+    {
+      for (File child : children)
+      {
+        deleteTree(child);
+      }
+    }
+    Files.deleteIfExists(file.toPath());
+  }
+
+  private void start()
+  {
+    try
+    {
+      if (_mode == Mode.REPLAY)
+      {
+        loadArchive();
+      }
+      else if (_mode == Mode.RECORD)
+      {
+        // A recording left by an earlier run that didn't pass is not reused
+        deleteTree(_staging);
+      }
+      _server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+      _server.createContext("/", exchange -> handle(exchange));
+      _server.setExecutor(Executors.newCachedThreadPool(runnable ->
+      {
+        Thread thread = new Thread(runnable, "site-server");
+        thread.setDaemon(true);
+        return thread;
+      }));
+      _server.start();
+      _baseUrl = "http://127.0.0.1:" + _server.getAddress().getPort();
+      Log.info("Site " + _origin + " served from " + _baseUrl + " in " + _mode + " mode");
+    }
+    catch (IOException e)
+    {
+      throw new UncheckedIOException("Could not start the local site server for " + _origin, e);
+    }
+  }
+
+  private void handle(HttpExchange exchange) throws IOException
+  {
+    try
+    {
+      byte[] requestBody = readAll(exchange.getRequestBody());
+      String key = exchange.getRequestMethod() + " " + exchange.getRequestURI();
+      if (requestBody.length > 0)
+      {
+        key += " " + sha1(requestBody);
+      }
+
+      Recorded response = _mode == Mode.REPLAY ? _responses.get(key) : record(exchange, requestBody, key);
+      if (response == null)
+      {
+        Log.info("Not in site archive: " + key);
+        exchange.sendResponseHeaders(404, -1);
+        return;
+      }
+      serve(exchange, response);
+    }
+    finally
+    {
+      exchange.close();
+    }
+  }
+
+  private Recorded record(HttpExchange exchange, byte[] requestBody, String key) throws IOException
+  {
+    HttpURLConnection connection = (HttpURLConnection) new URL(_origin + exchange.getRequestURI()).openConnection();
+    connection.setInstanceFollowRedirects(false);
+    connection.setRequestMethod(exchange.getRequestMethod());
+    for (Map.Entry<String, List<String>> header : exchange.getRequestHeaders().entrySet())
+    {
+      String name = header.getKey();
+      // Ask for an identity body so it can be rewritten when served
+      if (name.equalsIgnoreCase("Host") || name.equalsIgnoreCase("Accept-Encoding")
+        || name.equalsIgnoreCase("Connection") || name.equalsIgnoreCase("Content-Length"))
+      {
+        continue;
+      }
+      for (String value : header.getValue())
+      {
+        connection.addRequestProperty(name, value.replace(_baseUrl, _origin));
+      }
+    }
+    if (requestBody.length > 0)
+    {
+      connection.setDoOutput(true);
+      try (OutputStream out = connection.getOutputStream())
+      {
+        out.write(requestBody);
+      }
+    }
+
+    int status = connection.getResponseCode();
+    InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+    byte[] body = in == null ? new byte[0] : readAll(in);
+
+    Map<String, List<String>> headers = new LinkedHashMap<String, List<String>>();
+    for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet())
+    {
+      if (header.getKey() != null)
+      {
+        headers.put(header.getKey(), new ArrayList<String>(header.getValue()));
+      }
+    }
+
+    Recorded recorded = new Recorded(status, headers, body);
+    _responses.put(key, recorded);
+    save(key, recorded);
+    return recorded;
+  }
+
+  private void serve(HttpExchange exchange, Recorded response) throws IOException
+  {
+    boolean rewriteBody = false;
+    for (Map.Entry<String, List<String>> header : response.headers.entrySet())
+    {
+      String name = header.getKey();
+      if (name.equalsIgnoreCase("Content-Length") || name.equalsIgnoreCase("Transfer-Encoding")
+        || name.equalsIgnoreCase("Connection") || name.equalsIgnoreCase("Strict-Transport-Security"))
+      {
+        continue;
+      }
+      for (String value : header.getValue())
+      {
+        if (name.equalsIgnoreCase("Set-Cookie"))
+        {
+          // The cookie has to stick to the local host, which is plain http
+          value = value.replaceAll("(?i);\\s*Domain=[^;]*", "").replaceAll("(?i);\\s*Secure", "");
+        }
+        else if (name.equalsIgnoreCase("Location"))
+        {
+          value = value.replace(_origin, _baseUrl);
+        }
+        else if (name.equalsIgnoreCase("Content-Type"))
+        {
+          rewriteBody = value.startsWith("text/") || value.contains("javascript") || value.contains("json");
+        }
+        exchange.getResponseHeaders().add(name, value);
+      }
+    }
+    for (String name : response.headers.keySet())
+    {
+      if (name.equalsIgnoreCase("Content-Encoding"))
+      {
+        rewriteBody = false;
+      }
+    }
+
+    byte[] body = response.body;
+    if (rewriteBody)
+    {
+      body = new String(body, StandardCharsets.UTF_8).replace(_origin, _baseUrl).getBytes(StandardCharsets.UTF_8);
+    }
+
+    boolean noBody = body.length == 0 || exchange.getRequestMethod().equals("HEAD")
+      || response.status == 204 || response.status == 304;
+    exchange.sendResponseHeaders(response.status, noBody ? -1 : body.length);
+    if (!noBody)
+    {
+      exchange.getResponseBody().write(body);
+    }
+  }
+
+  private void save(String key, Recorded recorded) throws IOException
+  {
+    _staging.mkdirs();
+    String name = sha1(key.getBytes(StandardCharsets.UTF_8));
+    Properties meta = new Properties();
+    meta.setProperty("key", key);
+    meta.setProperty("status", String.valueOf(recorded.status));
+    int i = 0;
+    for (Map.Entry<String, List<String>> header : recorded.headers.entrySet())
+    {
+      for (String value : header.getValue())
+      {
+        meta.setProperty("header." + i++, header.getKey() + ": " + value);
+      }
+    }
+    try (OutputStream out = new FileOutputStream(new File(_staging, name + ".properties")))
+    {
+      meta.store(out, null);
+    }
+    Files.write(new File(_staging, name + ".body").toPath(), recorded.body);
+  }
+
+  private void loadArchive() throws IOException
+  {
+    File[] files = _dir.listFiles((dir, name) -> name.endsWith(".properties"));
+    if (files == null)
+    {
+      throw new IOException("No site archive at " + _dir + ", run once with -Dsite.mode=RECORD");
+    }
+    for (File file : files)
+    {
+      Properties meta = new Properties();
+      try (InputStream in = new FileInputStream(file))
+      {
+        meta.load(in);
+      }
+      Map<String, List<String>> headers = new LinkedHashMap<String, List<String>>();
+      for (int i = 0; meta.containsKey("header." + i); i++)
+      {
+        String header = meta.getProperty("header." + i);
+        int colon = header.indexOf(": ");
+        String name = header.substring(0, colon);
+        if (!headers.containsKey(name))
+        {
+          headers.put(name, new ArrayList<String>());
+        }
+        headers.get(name).add(header.substring(colon + 2));
+      }
+      String bodyName = file.getName().replace(".properties", ".body");
+      byte[] body = Files.readAllBytes(new File(_dir, bodyName).toPath());
+      _responses.put(meta.getProperty("key"), new Recorded(Integer.parseInt(meta.getProperty("status")), headers, body));
+    }
+  }
+
+  private static byte[] readAll(InputStream in) throws IOException
+  {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    int read;
+    while ((read = in.read(buffer)) != -1)
+    {
+      out.write(buffer, 0, read);
+    }
+    return out.toByteArray();
+  }
+
+  private static String sha1(byte[] data)
+  {
+    try
+    {
+      StringBuilder hex = new StringBuilder();
+      for (byte b : MessageDigest.getInstance("SHA-1").digest(data))
+      {
+        hex.append(String.format("%02x", b));
+      }
+      return hex.toString();
+    }
+    catch (NoSuchAlgorithmException e)
+    {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static final class Recorded
+  {
+    final int status;
+    final Map<String, List<String>> headers;
+    final byte[] body;
+
+    Recorded(int status, Map<String, List<String>> headers, byte[] body)
+    {
+      this.status = status;
+      this.headers = headers;
+      this.body = body;
+    }
+  }
+}
+
+/* SmartWait.java core */
+package com.seleniumframework.core;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.ScriptTimeoutException;
+import org.openqa.selenium.TimeoutException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.chrome.ChromeDriver;
+
+// Waits inside the page: a MutationObserver and an XHR/fetch counter call back as soon as
+// the condition holds, so there is no polling interval to sit out
+public final class SmartWait
+{
+  // Resolves [strategy, value] to an element, or null when it isn't in the page
+  public static final String RESOLVE_JS =
+    "function __sfResolve(loc) {"
+    + "  var s = loc[0], v = loc[1];"
+    + "  if (s === 'id') return document.getElementById(v);"
+    + "  if (s === 'css') return document.querySelector(v);"
+    + "  if (s === 'name') return document.getElementsByName(v)[0] || null;"
+    + "  if (s === 'xpath') return document.evaluate(v, document, null, XPathResult.FIRST_ORDERED_NODE_TYPE, null).singleNodeValue;"
+    + "  return null;"
+    + "}";
+
+  // Counts XHR and fetch calls in flight and notifies listeners when it drops to zero
+  private static final String HOOKS_JS =
+    "if (!window.__sfAjax) {"
+    + "  var a = window.__sfAjax = { pending: 0, listeners: [] };"
+    + "  var changed = function (d) {"
+    + "    a.pending = Math.max(0, a.pending + d);"
+    + "    if (a.pending === 0) a.listeners.slice().forEach(function (l) { l(); });"
+    + "  };"
+    + "  var send = XMLHttpRequest.prototype.send;"
+    + "  XMLHttpRequest.prototype.send = function () {"
+    + "    changed(1); this.addEventListener('loadend', function () { changed(-1); });"
+    + "    return send.apply(this, arguments);"
+    + "  };"
+    + "  if (window.fetch) {"
+    + "    var f = window.fetch;"
+    + "    window.fetch = function () {"
+    + "      changed(1);"
+    + "      return f.apply(this, arguments).then("
+    + "        function (r) { changed(-1); return r; }, function (e) { changed(-1); throw e; });"
+    + "    };"
+    + "  }"
+    + "}";
+
+  private static final String WAIT_JS = RESOLVE_JS
+    + "var loc = arguments[0], condition = arguments[1], timeout = arguments[2];"
+    + "var done = arguments[arguments.length - 1], finished = false, observer, timer;"
+    + "function met() {"
+    + "  if (condition === 'ajaxIdle') return !!window.__sfAjax && window.__sfAjax.pending === 0;"
+    + "  var el = __sfResolve(loc);"
+    + "  if (!el) return false;"
+    + "  if (condition === 'attached') return true;"
+    + "  var style = window.getComputedStyle(el);"
+    + "  return style.display !== 'none' && style.visibility !== 'hidden' && el.getClientRects().length > 0;"
+    + "}"
+    + "function finish(result) {"
+    + "  if (finished) return;"
+    + "  finished = true;"
+    + "  if (observer) observer.disconnect();"
+    + "  clearTimeout(timer);"
+    + "  document.removeEventListener('transitionend', check, true);"
+    + "  document.removeEventListener('animationend', check, true);"
+    + "  if (window.__sfAjax) {"
+    + "    var i = window.__sfAjax.listeners.indexOf(check);"
+    + "    if (i >= 0) window.__sfAjax.listeners.splice(i, 1);"
+    + "  }"
+    + "  done(result);"
+    + "}"
+    + "function check() { if (met()) finish(true); }"
+    + "if (met()) { done(true); } else {"
+    + "  observer = new MutationObserver(check);"
+    + "  observer.observe(document, { childList: true, subtree: true, attributes: true });"
+    + "  document.addEventListener('transitionend', check, true);"
+    + "  document.addEventListener('animationend', check, true);"
+    + "  if (window.__sfAjax) window.__sfAjax.listeners.push(check);"
+    + "  timer = setTimeout(function () { finish(false); }, timeout);"
+    + "}";
+
+  private static final long _timeoutMillis = Long.getLong("wait.timeoutMs", 10000);
+
+  // Driver whose script timeout has already been raised above the wait timeout
+  private static final ThreadLocal<WebDriver> _configured = new ThreadLocal<WebDriver>();
+
+  private SmartWait()
+  {
+  }
+
+  // Chrome runs the hooks in every new document before the page's own scripts, so requests sent while
+  // it loads are counted too and a navigation can't outrun them
+  public static void register(ChromeDriver driver)
+  {
+    Map<String, Object> params = new HashMap<String, Object>();
+    params.put("source", HOOKS_JS);
+    driver.executeCdpCommand("Page.addScriptToEvaluateOnNewDocument", params);
+  }
+
+  // Called after every navigation for drivers without CDP, requests the page sent before are missed.
+  // Without the hooks the page never counts as AJAX idle.
+  public static void installHooks(WebDriver driver)
+  {
+    ((JavascriptExecutor) driver).executeScript(HOOKS_JS);
+  }
+
+  public static long untilVisible(String name, List<String> locator)
+  {
+    return await(name, locator, "visible");
+  }
+
+  public static long untilAttached(String name, List<String> locator)
+  {
+    return await(name, locator, "attached");
+  }
+
+  public static long untilAjaxIdle()
+  {
+    return await("Page", null, "ajaxIdle");
+  }
+
+  // Returns how long the wait blocked, throws TimeoutException when the condition never held
+  private static long await(String name, List<String> locator, String condition)
+  {
+    WebDriver driver = DriverContext.getDriver();
+    if (_configured.get() != driver)
+    {
+      driver.manage().timeouts().scriptTimeout(Duration.ofMillis(_timeoutMillis + 2000));
+      _configured.set(driver);
+    }
+
+    long start = System.nanoTime();
+    Object result;
+    try
+    {
+      result = ((JavascriptExecutor) driver).executeAsyncScript(WAIT_JS, locator, condition, _timeoutMillis);
+    }
+    catch (ScriptTimeoutException e)
+    {
+      result = Boolean.FALSE;
+    }
+    long blocked = System.nanoTime() - start;
+
+    boolean met = Boolean.TRUE.equals(result);
+    Timings.recordAction(name, "wait", blocked);
+    Log.action(name, "wait", blocked, met ? Log.Outcome.PASS : Log.Outcome.FAIL, "Waited for " + condition);
+    if (!met)
+    {
+      throw new TimeoutException(name + " was not " + condition + " within " + _timeoutMillis + " ms");
+    }
+    return blocked;
+  }
+}
+
+/* Checkpoint.java core */
+package com.seleniumframework.core;
+import java.util.Map;
+import java.util.Set;
+import org.openqa.selenium.Cookie;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+
+// Browser state after a named step: cookies, both storages, the URL and the values of the form fields,
+// along with the data row the saving test was using
+public final class Checkpoint
+{
+  private static final String CAPTURE_JS =
+    "function dump(s) { var o = {}; for (var i = 0; i < s.length; i++) { var k = s.key(i); o[k] = s.getItem(k); } return o; }"
+    + "var fields = {};"
+    + "document.querySelectorAll('input, select, textarea').forEach(function (el) {"
+    + "  var key = el.id || el.name;"
+    + "  if (!key) return;"
+    + "  fields[key] = (el.type === 'checkbox' || el.type === 'radio') ? (el.checked ? 'checked' : '') : el.value;"
+    + "});"
+    + "return { local: dump(window.localStorage), session: dump(window.sessionStorage), fields: fields };";
+
+  private static final String RESTORE_STORAGE_JS =
+    "var local = arguments[0], session = arguments[1];"
+    + "window.localStorage.clear(); window.sessionStorage.clear();"
+    + "Object.keys(local).forEach(function (k) { window.localStorage.setItem(k, local[k]); });"
+    + "Object.keys(session).forEach(function (k) { window.sessionStorage.setItem(k, session[k]); });";
+
+  private static final String RESTORE_FIELDS_JS =
+    "var fields = arguments[0];"
+    + "Object.keys(fields).forEach(function (key) {"
+    + "  var el = document.getElementById(key) || document.getElementsByName(key)[0];"
+    + "  if (!el) return;"
+    + "  if (el.type === 'checkbox' || el.type === 'radio') el.checked = fields[key] === 'checked';"
+    + "  else el.value = fields[key];"
+    + "  el.dispatchEvent(new Event('input', { bubbles: true }));"
+    + "  el.dispatchEvent(new Event('change', { bubbles: true }));"
+    + "});";
+
+  private final String _name;
+  private final String _url;
+  private final Set<Cookie> _cookies;
+  private final Map<String, Object> _localStorage;
+  private final Map<String, Object> _sessionStorage;
+  private final Map<String, Object> _fields;
+  private final DataTable.Row _row;
+
+  private Checkpoint(String name, String url, Set<Cookie> cookies, Map<String, Object> localStorage,
+    Map<String, Object> sessionStorage, Map<String, Object> fields, DataTable.Row row)
+  {
+    _name = name;
+    _row = row;
+    _url = url;
+    _cookies = cookies;
+    _localStorage = localStorage;
+    _sessionStorage = sessionStorage;
+    _fields = fields;
+  }
+
+  public String getName()
+  {
+    return _name;
+  }
+
+  public String getUrl()
+  {
+    return _url;
+  }
+
+  // null when the saving test had no data row bound
+  public DataTable.Row getRow()
+  {
+    return _row;
+  }
+
+  @SuppressWarnings("unchecked")
+  static Checkpoint capture(String name, WebDriver driver, DataTable.Row row)
+  {
+    Map<String, Object> state = (Map<String, Object>) ((JavascriptExecutor) driver).executeScript(CAPTURE_JS);
+    return new Checkpoint(name, driver.getCurrentUrl(), driver.manage().getCookies(),
+      (Map<String, Object>) state.get("local"), (Map<String, Object>) state.get("session"),
+      (Map<String, Object>) state.get("fields"), row);
+  }
+
+  // Cookies and storage belong to the origin, so load the page once, set them, then load it again
+  void restore(WebDriver driver)
+  {
+    driver.get(_url);
+    driver.manage().deleteAllCookies();
+    for (Cookie cookie : _cookies)
+    {
+      driver.manage().addCookie(cookie);
+    }
+    ((JavascriptExecutor) driver).executeScript(RESTORE_STORAGE_JS, _localStorage, _sessionStorage);
+    driver.get(_url);
+    ((JavascriptExecutor) driver).executeScript(RESTORE_FIELDS_JS, _fields);
+  }
+}
+
+/* DurationHistory.java core */
+package com.seleniumframework.core;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+// Test and data-row durations from earlier runs, smoothed so one slow run doesn't reshuffle the shards.
+// A sharded run writes only what it ran to its own file, ShardMerger folds those back into the history.
+public final class DurationHistory
+{
+  private static final String _path = System.getProperty("shard.history", "test-durations.properties");
+  private static final Map<String, Long> _previous = Collections.unmodifiableMap(load(new File(_path)));
+  private static final ConcurrentMap<String, Long> _recorded = new ConcurrentHashMap<String, Long>();
+
+  private DurationHistory()
+  {
+  }
+
+  // Milliseconds expected for the test, null when it has never run
+  public static Long get(String testId)
+  {
+    return _previous.get(testId);
+  }
+
+  public static Map<String, Long> getAll()
+  {
+    return _previous;
+  }
+
+  public static void record(String testId, long millis)
+  {
+    Long previous = _previous.get(testId);
+    _recorded.put(testId, previous == null ? millis : (previous + millis) / 2);
+  }
+
+  public static void save()
+  {
+    Map<String, Long> durations = new HashMap<String, Long>();
+    if (!ShardPlan.isEnabled())
+    {
+      durations.putAll(_previous);
+    }
+    durations.putAll(_recorded);
+    write(new File(ShardPlan.qualify(_path)), durations);
+  }
+
+  // Folds the shard files into the shared history
+  static void merge(int shards) throws IOException
+  {
+    Map<String, Long> durations = load(new File(_path));
+    for (int i = 0; i < shards; i++)
+    {
+      durations.putAll(load(new File(ShardPlan.pathFor(_path, i))));
+    }
+    write(new File(_path), durations);
+  }
+
+  private static Map<String, Long> load(File file)
+  {
+    Map<String, Long> durations = new HashMap<String, Long>();
+    if (!file.isFile())
+    {
+      return durations;
+    }
+    Properties properties = new Properties();
+    try (InputStream in = new FileInputStream(file))
+    {
+      properties.load(in);
+    }
+    catch (IOException e)
+    {
+      Log.info("Could not read duration history " + file + ": " + e.getMessage());
+      return durations;
+    }
+    for (String id : properties.stringPropertyNames())
+    {
+      try
+      {
+        durations.put(id, Long.parseLong(properties.getProperty(id).trim()));
+      }
+      catch (NumberFormatException e)
+      {
+        // A hand-edited entry, plan without it
+      }
+    }
+    return durations;
+  }
+
+  private static void write(File file, Map<String, Long> durations)
+  {
+    if (file.getParentFile() != null)
+    {
+      file.getParentFile().mkdirs();
+    }
+    Properties properties = new Properties();
+    for (Map.Entry<String, Long> entry : new TreeMap<String, Long>(durations).entrySet())
+    {
+      properties.setProperty(entry.getKey(), entry.getValue().toString());
+    }
+    try (OutputStream out = new FileOutputStream(file))
+    {
+      properties.store(out, "Test durations in ms, used to balance shards");
+    }
+    catch (IOException e)
+    {
+      Log.info("Could not write duration history " + file + ": " + e.getMessage());
+    }
+  }
+}
+
+/* ChangeSelection.java core */
+package com.seleniumframework.core;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
+
+// Reruns only the tests whose dependencies changed since they last passed. While a test runs it records
+// the classes it touches (page sections, element types and the test class) and the data cells it reads.
+// A pass stores a fingerprint of their current contents. With -Dselect.changed=true a test or data row
+// runs again only when it never passed or that fingerprint differs.
+// A locator edit shows up as a change to the page section class that declares it. Every test also
+// depends on the framework itself (core and webelements), so a change there reruns everything.
+// Cells are compared against one streamed pass over the data that keeps only the cells some test read.
+public final class ChangeSelection
+{
+  private static final boolean _enabled = Boolean.getBoolean("select.changed");
+  private static final String _path = System.getProperty("select.cache", "test-selection.properties");
+  private static final String FINGERPRINT = ".fingerprint";
+  private static final String DEPENDENCIES = ".dependencies";
+  private static final String FRAMEWORK = "framework";
+  private static final String[] FRAMEWORK_PACKAGES = { "com/seleniumframework/core/", "com/seleniumframework/webelements/" };
+
+  private static final Properties _previous = load(new File(_path));
+  // Test id -> fingerprint and dependencies from this run, an empty fingerprint marks a failure
+  private static final ConcurrentMap<String, String[]> _results = new ConcurrentHashMap<String, String[]>();
+  private static final ConcurrentMap<String, Boolean> _selected = new ConcurrentHashMap<String, Boolean>();
+  private static final Set<String> _forced = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+  private static final ConcurrentMap<String, String> _classHashes = new ConcurrentHashMap<String, String>();
+  private static volatile String _frameworkHash;
+
+  // Current values of the cells the stored dependencies name, read on first use
+  private static Map<String, String> _cells;
+
+  // Dependency -> the value the test read, null for classes which are hashed at the end
+  private static final ThreadLocal<Map<String, String>> _touched = new ThreadLocal<Map<String, String>>();
+
+  private ChangeSelection()
+  {
+  }
+
+  public static boolean isEnabled()
+  {
+    return _enabled;
+  }
+
+  // Starts recording the dependencies of the test running on this thread
+  public static void begin()
+  {
+    Map<String, String> touched = new TreeMap<String, String>();
+    touched.put(FRAMEWORK, null);
+    _touched.set(touched);
+  }
+
+  public static void touchClass(String className)
+  {
+    Map<String, String> touched = _touched.get();
+    if (touched != null && className != null)
+    {
+      touched.put("class:" + className, null);
+    }
+  }
+
+  public static void touchCell(int row, String column, String value)
+  {
+    Map<String, String> touched = _touched.get();
+    if (touched != null)
+    {
+      touched.put("cell:" + row + ":" + column, value);
+    }
+  }
+
+  // Keeps the fingerprint of a passed test, a failed one runs again next time
+  public static void end(String testId, boolean passed)
+  {
+    Map<String, String> touched = _touched.get();
+    _touched.remove();
+    if (touched == null)
+    {
+      return;
+    }
+    String fingerprint = null;
+    if (passed)
+    {
+      Map<String, String> contents = new TreeMap<String, String>();
+      for (Map.Entry<String, String> dependency : touched.entrySet())
+      {
+        contents.put(dependency.getKey(), dependency.getValue() != null ? dependency.getValue() : contentOf(dependency.getKey()));
+      }
+      fingerprint = fingerprint(contents);
+    }
+    _results.put(testId, new String[] { fingerprint == null ? "" : fingerprint, join(touched.keySet()) });
+  }
+
+  // True when the test has to run: selection is off, it never passed, or a dependency changed
+  public static boolean isSelected(String testId)
+  {
+    if (!_enabled || _forced.contains(testId))
+    {
+      return true;
+    }
+    Boolean selected = _selected.get(testId);
+    if (selected == null)
+    {
+      String stored = _previous.getProperty(testId + FINGERPRINT);
+      String dependencies = _previous.getProperty(testId + DEPENDENCIES);
+      selected = stored == null || stored.isEmpty() || dependencies == null;
+      if (!selected)
+      {
+        Map<String, String> contents = new TreeMap<String, String>();
+        for (String dependency : dependencies.split(","))
+        {
+          contents.put(dependency, contentOf(dependency));
+        }
+        selected = !stored.equals(fingerprint(contents));
+      }
+      _selected.put(testId, selected);
+    }
+    return selected;
+  }
+
+  // Runs an unchanged test anyway because a selected test depends on it
+  static void force(String testId)
+  {
+    _forced.add(testId);
+  }
+
+  public static void save()
+  {
+    Properties properties = new Properties();
+    if (!ShardPlan.isEnabled())
+    {
+      properties.putAll(_previous);
+    }
+    for (Map.Entry<String, String[]> result : _results.entrySet())
+    {
+      properties.setProperty(result.getKey() + FINGERPRINT, result.getValue()[0]);
+      properties.setProperty(result.getKey() + DEPENDENCIES, result.getValue()[1]);
+    }
+    write(new File(ShardPlan.qualify(_path)), properties);
+  }
+
+  // Folds the shard results into the shared cache
+  static void merge(int shards)
+  {
+    Properties properties = load(new File(_path));
+    for (int i = 0; i < shards; i++)
+    {
+      properties.putAll(load(new File(ShardPlan.pathFor(_path, i))));
+    }
+    write(new File(_path), properties);
+  }
+
+  // Hash over every dependency and its content, null when one of them no longer exists
+  private static String fingerprint(Map<String, String> contents)
+  {
+    MessageDigest digest;
+    try
+    {
+      digest = MessageDigest.getInstance("SHA-1");
+    }
+    catch (NoSuchAlgorithmException e)
+    {
+      throw new IllegalStateException(e);
+    }
+    for (Map.Entry<String, String> content : contents.entrySet())
+    {
+      if (content.getValue() == null)
+      {
+        return null;
+      }
+      digest.update((content.getKey() + "=" + content.getValue() + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+    return hex(digest.digest());
+  }
+
+  private static String contentOf(String dependency)
+  {
+    if (dependency.startsWith("class:"))
+    {
+      return classHash(dependency.substring("class:".length()));
+    }
+    if (dependency.startsWith("cell:"))
+    {
+      return cells().get(dependency);
+    }
+    if (dependency.equals(FRAMEWORK))
+    {
+      return frameworkHash();
+    }
+    return null;
+  }
+
+  // Hash over every compiled class of the framework packages, read from wherever this class was loaded
+  private static String frameworkHash()
+  {
+    String hash = _frameworkHash;
+    if (hash != null)
+    {
+      return hash;
+    }
+    try
+    {
+      File root = new File(ChangeSelection.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      if (root.isDirectory())
+      {
+        List<Path> classes = new ArrayList<Path>();
+        for (String prefix : FRAMEWORK_PACKAGES)
+        {
+          Path dir = root.toPath().resolve(prefix);
+          if (Files.isDirectory(dir))
+          {
+            try (Stream<Path> files = Files.walk(dir))
+            {
+              files.filter(file -> file.toString().endsWith(".class")).forEach(classes::add);
+            }
+          }
+        }
+        Collections.sort(classes);
+        for (Path file : classes)
+        {
+          digest.update(root.toPath().relativize(file).toString().replace('\\', '/').getBytes(StandardCharsets.UTF_8));
+          digest.update(Files.readAllBytes(file));
+        }
+      }
+      else
+      {
+        try (JarFile jar = new JarFile(root))
+        {
+          List<String> classes = new ArrayList<String>();
+          for (JarEntry entry : Collections.list(jar.entries()))
+          {
+            for (String prefix : FRAMEWORK_PACKAGES)
+            {
+              if (entry.getName().startsWith(prefix) && entry.getName().endsWith(".class"))
+              {
+                classes.add(entry.getName());
+              }
+            }
+          }
+          Collections.sort(classes);
+          for (String name : classes)
+          {
+            digest.update(name.getBytes(StandardCharsets.UTF_8));
+            try (InputStream in = jar.getInputStream(jar.getEntry(name)))
+            {
+              byte[] buffer = new byte[8192];
+              int read;
+              while ((read = in.read(buffer)) > 0)
+              {
+                digest.update(buffer, 0, read);
+              }
+            }
+          }
+        }
+      }
+      hash = hex(digest.digest());
+    }
+    catch (IOException | NoSuchAlgorithmException | URISyntaxException | RuntimeException e)
+    {
+      // Unknown framework state, every test runs
+      return null;
+    }
+    _frameworkHash = hash;
+    return hash;
+  }
+
+  private static synchronized Map<String, String> cells()
+  {
+    if (_cells != null)
+    {
+      return _cells;
+    }
+    Map<Integer, Set<String>> wanted = new HashMap<Integer, Set<String>>();
+    for (String key : _previous.stringPropertyNames())
+    {
+      if (key.endsWith(DEPENDENCIES))
+      {
+        for (String dependency : _previous.getProperty(key).split(","))
+        {
+          if (dependency.startsWith("cell:"))
+          {
+            String[] parts = dependency.split(":", 3);
+            wanted.computeIfAbsent(Integer.valueOf(parts[1]), row -> new HashSet<String>()).add(parts[2]);
+          }
+        }
+      }
+    }
+
+    Map<String, String> cells = new HashMap<String, String>();
+    if (!wanted.isEmpty())
+    {
+      try
+      {
+        Iterator<DataTable.Row> rows = DataTable.rows();
+        while (rows.hasNext())
+        {
+          DataTable.Row row = rows.next();
+          Set<String> columns = wanted.get(row.getIndex());
+          for (String column : columns == null ? Collections.<String>emptySet() : columns)
+          {
+            try
+            {
+              cells.put("cell:" + row.getIndex() + ":" + column, row.value(column));
+            }
+            catch (IllegalArgumentException e)
+            {
+              // Column gone, the tests reading it run again
+            }
+          }
+        }
+      }
+      catch (IOException | UncheckedIOException e)
+      {
+        Log.info("Could not read the test data for change selection: " + e.getMessage());
+      }
+    }
+    _cells = cells;
+    return cells;
+  }
+
+  // Hash of the compiled class, so any edit to its code or constants changes it
+  private static String classHash(String className)
+  {
+    String hash = _classHashes.get(className);
+    if (hash != null)
+    {
+      return hash;
+    }
+    try (InputStream in = ChangeSelection.class.getClassLoader().getResourceAsStream(className.replace('.', '/') + ".class"))
+    {
+      if (in == null)
+      {
+        return null;
+      }
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = in.read(buffer)) > 0)
+      {
+        digest.update(buffer, 0, read);
+      }
+      hash = hex(digest.digest());
+    }
+    catch (IOException | NoSuchAlgorithmException e)
+    {
+      return null;
+    }
+    _classHashes.put(className, hash);
+    return hash;
+  }
+
+  private static String hex(byte[] bytes)
+  {
+    StringBuilder hex = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes)
+    {
+      hex.append(String.format("%02x", b & 0xff));
+    }
+    return hex.toString();
+  }
+
+  private static String join(Collection<String> values)
+  {
+    StringBuilder joined = new StringBuilder();
+    for (String value : values)
+    {
+      joined.append(joined.length() == 0 ? "" : ",").append(value);
+    }
+    return joined.toString();
+  }
+
+  private static Properties load(File file)
+  {
+    Properties properties = new Properties();
+    if (file.isFile())
+    {
+      try (InputStream in = new FileInputStream(file))
+      {
+        properties.load(in);
+      }
+      catch (IOException e)
+      {
+        Log.info("Could not read the test selection cache " + file + ": " + e.getMessage());
+      }
+    }
+    return properties;
+  }
+
+  private static void write(File file, Properties properties)
+  {
+    if (file.getParentFile() != null)
+    {
+      file.getParentFile().mkdirs();
+    }
+    try (OutputStream out = new FileOutputStream(file))
+    {
+      properties.store(out, "Fingerprints of the last passing run of each test");
+    }
+    catch (IOException e)
+    {
+      Log.info("Could not write the test selection cache " + file + ": " + e.getMessage());
+    }
+  }
+}
+
+/* ShardPlan.java core */
+package com.seleniumframework.core;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Splits the suite over -Dshard.total runners, this JVM runs shard -Dshard.index (from 0).
+// Tests and data rows are packed longest-first onto the least loaded shard using DurationHistory,
+// so every runner works out the same plan from the same history file.
+public final class ShardPlan
+{
+  private static final int _total = Integer.getInteger("shard.total", 1);
+  private static final int _index = Integer.getInteger("shard.index", 0);
+  private static final long _defaultMillis = 1000;
+
+  private static final Set<String> _owned = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+  private static volatile boolean _planned;
+
+  private ShardPlan()
+  {
+  }
+
+  public static boolean isEnabled()
+  {
+    return _total > 1;
+  }
+
+  public static int getIndex()
+  {
+    return _index;
+  }
+
+  public static int getTotal()
+  {
+    return _total;
+  }
+
+  // Output path of this shard, unchanged when the run isn't sharded
+  public static String qualify(String path)
+  {
+    return isEnabled() ? pathFor(path, _index) : path;
+  }
+
+  // "target/report" -> "target/report-shard-1", "target/test-log.txt" -> "target/test-log-shard-1.txt"
+  public static String pathFor(String path, int shard)
+  {
+    int slash = Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\'));
+    int dot = path.lastIndexOf('.');
+    return dot > slash + 1 ? path.substring(0, dot) + "-shard-" + shard + path.substring(dot) : path + "-shard-" + shard;
+  }
+
+  public static String testId(Class<?> testClass, String method)
+  {
+    return testClass.getSimpleName() + "." + method;
+  }
+
+  public static String testId(Class<?> testClass, String method, int row)
+  {
+    return testId(testClass, method) + "[" + row + "]";
+  }
+
+  // True when this shard runs the test. Everything runs when the run isn't sharded or wasn't planned.
+  public static boolean owns(String testId)
+  {
+    return !isEnabled() || !_planned || _owned.contains(testId);
+  }
+
+  // Packs the units onto the shards. Dependents map a unit to the unit it needs in the same JVM
+  // and go to that unit's shard.
+  static synchronized void plan(Collection<String> units, Map<String, String> dependents)
+  {
+    Map<String, Long> durations = new LinkedHashMap<String, Long>();
+    long fallback = averageKnown();
+    for (String unit : units)
+    {
+      Long known = DurationHistory.get(unit);
+      durations.put(unit, known == null ? fallback : known);
+    }
+
+    long[] loads = new long[_total];
+    Map<String, Integer> shardOf = partition(durations, loads);
+    for (Map.Entry<String, String> dependent : dependents.entrySet())
+    {
+      Integer shard = shardOf.get(dependent.getValue());
+      int target = shard == null ? leastLoaded(loads) : shard;
+      Long known = DurationHistory.get(dependent.getKey());
+      loads[target] += known == null ? fallback : known;
+      shardOf.put(dependent.getKey(), target);
+    }
+
+    int count = 0;
+    for (Map.Entry<String, Integer> entry : shardOf.entrySet())
+    {
+      if (entry.getValue() == _index)
+      {
+        _owned.add(entry.getKey());
+        count++;
+      }
+    }
+    _planned = true;
+
+    long longest = 0;
+    long sum = 0;
+    for (long load : loads)
+    {
+      longest = Math.max(longest, load);
+      sum += load;
+    }
+    Log.info("Shard " + _index + " of " + _total + ": " + count + " of " + shardOf.size() + " tests, expected "
+      + loads[_index] / 1000 + " s of " + sum / 1000 + " s in total, longest shard " + longest / 1000 + " s");
+  }
+
+  // Longest processing time first: the longest unit goes to the least loaded shard until none are left.
+  // Ties are broken by name so the plan doesn't depend on discovery order.
+  static Map<String, Integer> partition(Map<String, Long> durations, long[] loads)
+  {
+    List<Map.Entry<String, Long>> units = new ArrayList<Map.Entry<String, Long>>(durations.entrySet());
+    Collections.sort(units, new Comparator<Map.Entry<String, Long>>()
+    {
+      public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b)
+      {
+        int byDuration = Long.compare(b.getValue(), a.getValue());
+        return byDuration != 0 ? byDuration : a.getKey().compareTo(b.getKey());
+      }
+    });
+
+    Map<String, Integer> shardOf = new HashMap<String, Integer>();
+    for (Map.Entry<String, Long> unit : units)
+    {
+      int shard = leastLoaded(loads);
+      loads[shard] += unit.getValue();
+      shardOf.put(unit.getKey(), shard);
+    }
+    return shardOf;
+  }
+
+  private static int leastLoaded(long[] loads)
+  {
+    int least = 0;
+    for (int i = 1; i < loads.length; i++)
+    {
+      if (loads[i] < loads[least])
+      {
+        least = i;
+      }
+    }
+    return least;
+  }
+
+  // Tests without history are assumed to take as long as an average known one
+  private static long averageKnown()
+  {
+    Map<String, Long> known = DurationHistory.getAll();
+    if (known.isEmpty())
+    {
+      return _defaultMillis;
+    }
+    long sum = 0;
+    for (long millis : known.values())
+    {
+      sum += millis;
+    }
+    return Math.max(1, sum / known.size());
+  }
+}
+
+/* ShardInterceptor.java core */
+package com.seleniumframework.core;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.testng.IMethodInstance;
+import org.testng.IMethodInterceptor;
+import org.testng.ITestContext;
+import org.testng.ITestNGMethod;
+import org.testng.annotations.Test;
+import jxl.read.biff.BiffException;
+
+// Drops the tests another shard runs and, with ChangeSelection on, the ones that haven't changed since
+// they last passed. Data-driven tests are planned per DataTable row and kept when at least one row is
+// left, their data provider hands out only those rows.
+public class ShardInterceptor implements IMethodInterceptor
+{
+  public List<IMethodInstance> intercept(List<IMethodInstance> methods, ITestContext context)
+  {
+    if (!ShardPlan.isEnabled() && !ChangeSelection.isEnabled())
+    {
+      return methods;
+    }
+
+    Map<IMethodInstance, List<String>> unitsOf = new LinkedHashMap<IMethodInstance, List<String>>();
+    Map<String, List<String>> unitsByName = new HashMap<String, List<String>>();
+    for (IMethodInstance instance : methods)
+    {
+      List<String> units = unitsOf(instance.getMethod());
+      unitsOf.put(instance, units);
+      unitsByName.put(instance.getMethod().getQualifiedName(), units);
+    }
+
+    // A selected test needs the test it depends on in the same JVM, changed or not
+    Map<IMethodInstance, String> upstreamOf = new HashMap<IMethodInstance, String>();
+    for (Map.Entry<IMethodInstance, List<String>> entry : unitsOf.entrySet())
+    {
+      String upstream = upstreamOf(entry.getKey().getMethod(), unitsByName);
+      if (upstream == null)
+      {
+        continue;
+      }
+      upstreamOf.put(entry.getKey(), upstream);
+      for (String unit : entry.getValue())
+      {
+        if (ChangeSelection.isSelected(unit))
+        {
+          ChangeSelection.force(upstream);
+          break;
+        }
+      }
+    }
+
+    List<String> independent = new ArrayList<String>();
+    Map<String, String> dependents = new LinkedHashMap<String, String>();
+    int unchanged = 0;
+    for (Map.Entry<IMethodInstance, List<String>> entry : unitsOf.entrySet())
+    {
+      String upstream = upstreamOf.get(entry.getKey());
+      for (String unit : entry.getValue())
+      {
+        if (!ChangeSelection.isSelected(unit))
+        {
+          unchanged++;
+        }
+        else if (upstream == null)
+        {
+          independent.add(unit);
+        }
+        else
+        {
+          dependents.put(unit, upstream);
+        }
+      }
+    }
+    if (ChangeSelection.isEnabled())
+    {
+      Log.info("Change selection: " + unchanged + " unchanged tests skipped, "
+        + (independent.size() + dependents.size()) + " to run");
+    }
+    if (ShardPlan.isEnabled())
+    {
+      ShardPlan.plan(independent, dependents);
+    }
+
+    List<IMethodInstance> kept = new ArrayList<IMethodInstance>();
+    for (Map.Entry<IMethodInstance, List<String>> entry : unitsOf.entrySet())
+    {
+      for (String unit : entry.getValue())
+      {
+        if (ChangeSelection.isSelected(unit) && ShardPlan.owns(unit))
+        {
+          kept.add(entry.getKey());
+          break;
+        }
+      }
+    }
+    return kept;
+  }
+
+  private static String upstreamOf(ITestNGMethod method, Map<String, List<String>> unitsByName)
+  {
+    for (String name : method.getMethodsDependedUpon())
+    {
+      List<String> units = unitsByName.get(name);
+      if (units != null && !units.isEmpty())
+      {
+        return units.get(0);
+      }
+    }
+    return null;
+  }
+
+  private static List<String> unitsOf(ITestNGMethod method)
+  {
+    List<String> units = new ArrayList<String>();
+    Method javaMethod = method.getConstructorOrMethod().getMethod();
+    Test test = javaMethod.getAnnotation(Test.class);
+    if (test == null || test.dataProvider().isEmpty())
+    {
+      units.add(ShardPlan.testId(method.getRealClass(), method.getMethodName()));
+      return units;
+    }
+
+    try
+    {
+      int rows = DataTable.getRowCount();
+      for (int row = 1; row <= rows; row++)
+      {
+        units.add(ShardPlan.testId(method.getRealClass(), method.getMethodName(), row));
+      }
+    }
+    catch (BiffException | IOException e)
+    {
+      throw new IllegalStateException("Could not count the data rows to shard " + method.getQualifiedName(), e);
+    }
+    return units;
+  }
+}
+
+/* ShardMerger.java core */
+package com.seleniumframework.core;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+// Folds the output of the shard runs back into one report, log, latency report, page timing trend,
+// duration history and selection cache:
+//   java ShardMerger <shardCount>
+// Run it with the same report.dir, log.path, timings.path, perf.timing.path and shard.history settings as the
+// shards, without shard.total.
+public final class ShardMerger
+{
+  // Log lines start with a "yyyy-MM-dd HH:mm:ss.SSS" timestamp
+  private static final int TIMESTAMP_LENGTH = 23;
+
+  private ShardMerger()
+  {
+  }
+
+  public static void main(String[] args) throws IOException
+  {
+    if (args.length != 1)
+    {
+      throw new IllegalArgumentException("Usage: ShardMerger <shardCount>");
+    }
+    int shards = Integer.parseInt(args[0]);
+
+    List<File> reports = new ArrayList<File>();
+    List<File> logs = new ArrayList<File>();
+    List<File> pageTimings = new ArrayList<File>();
+    String logPath = System.getProperty("log.path", "target/test-log.txt");
+    String timingsPath = System.getProperty("timings.path", "target/latency.json");
+    String pageTimingPath = System.getProperty("perf.timing.path", "target/page-timing.jsonl");
+    for (int i = 0; i < shards; i++)
+    {
+      reports.add(new File(ShardPlan.pathFor(Report.getDir().getPath(), i)));
+      logs.add(new File(ShardPlan.pathFor(logPath, i)));
+      Timings.load(new File(ShardPlan.pathFor(timingsPath, i)));
+      pageTimings.add(new File(ShardPlan.pathFor(pageTimingPath, i)));
+    }
+
+    Report.merge(reports);
+    mergeLogs(logs, new File(logPath));
+    Timings.export(new File(timingsPath));
+    moveLines(pageTimings, new File(pageTimingPath));
+    DurationHistory.merge(shards);
+    ChangeSelection.merge(shards);
+    System.out.println("Merged " + shards + " shards into " + Report.getDir() + " and " + logPath);
+  }
+
+  // Each shard's log is already in time order, so the logs are merged line by line on the timestamp.
+  // Lines without one stay with the line before.
+  static void mergeLogs(List<File> logs, File target) throws IOException
+  {
+    List<BufferedReader> readers = new ArrayList<BufferedReader>();
+    List<String> heads = new ArrayList<String>();
+    if (target.getParentFile() != null)
+    {
+      target.getParentFile().mkdirs();
+    }
+    try (BufferedWriter out = Files.newBufferedWriter(target.toPath(), StandardCharsets.UTF_8))
+    {
+      for (File log : logs)
+      {
+        if (log.isFile())
+        {
+          BufferedReader reader = Files.newBufferedReader(log.toPath(), StandardCharsets.UTF_8);
+          readers.add(reader);
+          heads.add(reader.readLine());
+        }
+      }
+
+      while (true)
+      {
+        int next = -1;
+        for (int i = 0; i < heads.size(); i++)
+        {
+          if (heads.get(i) != null && (next < 0 || timestamp(heads.get(i)).compareTo(timestamp(heads.get(next))) < 0))
+          {
+            next = i;
+          }
+        }
+        if (next < 0)
+        {
+          break;
+        }
+
+        out.write(heads.get(next));
+        out.newLine();
+        String line;
+        while ((line = readers.get(next).readLine()) != null && !hasTimestamp(line))
+        {
+          out.write(line);
+          out.newLine();
+        }
+        heads.set(next, line);
+      }
+    }
+    finally
+    {
+      for (BufferedReader reader : readers)
+      {
+        reader.close();
+      }
+    }
+  }
+
+  // Appends the shards' page timing samples to the shared trend file. They are removed from the shard
+  // files, which keep appending over runs, so the next merge doesn't add them twice.
+  static void moveLines(List<File> sources, File target) throws IOException
+  {
+    if (target.getParentFile() != null)
+    {
+      target.getParentFile().mkdirs();
+    }
+    try (BufferedWriter out = Files.newBufferedWriter(target.toPath(), StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+      StandardOpenOption.APPEND))
+    {
+      for (File source : sources)
+      {
+        if (!source.isFile())
+        {
+          continue;
+        }
+        try (BufferedReader in = Files.newBufferedReader(source.toPath(), StandardCharsets.UTF_8))
+        {
+          String line;
+          while ((line = in.readLine()) != null)
+          {
+            out.write(line);
+            out.newLine();
+          }
+        }
+      }
+    }
+    for (File source : sources)
+    {
+      Files.deleteIfExists(source.toPath());
+    }
+  }
+
+  private static boolean hasTimestamp(String line)
+  {
+    return line.length() >= TIMESTAMP_LENGTH && Character.isDigit(line.charAt(0)) && line.charAt(4) == '-'
+      && line.charAt(13) == ':';
+  }
+
+  private static String timestamp(String line)
+  {
+    return line.substring(0, Math.min(TIMESTAMP_LENGTH, line.length()));
+  }
+}
+
+/* DataSource.java core */
+package com.seleniumframework.core;
+import java.io.Closeable;
+import java.io.IOException;
+
+// Where DataTable reads its sheet from. Readers are forward-only and the first row is the header.
+public interface DataSource
+{
+  RowReader open() throws IOException;
+
+  // Changes when the underlying data changes, DataTable reloads its index then
+  long lastModified();
+
+  interface RowReader extends Closeable
+  {
+    // Next row's cells, or null after the last row
+    String[] next() throws IOException;
+  }
+}
+
+/* JxlDataSource.java core */
+package com.seleniumframework.core;
+import java.io.File;
+import java.io.IOException;
+import jxl.Sheet;
+import jxl.Workbook;
+import jxl.read.biff.BiffException;
+
+// Legacy .xls workbooks, jxl always parses the whole workbook
+public class JxlDataSource implements DataSource
+{
+  private final File _file;
+  private final String _sheetName;
+
+  public JxlDataSource(File file, String sheetName)
+  {
+    _file = file;
+    _sheetName = sheetName;
+  }
+
+  public long lastModified()
+  {
+    return _file.lastModified();
+  }
+
+  public RowReader open() throws IOException
+  {
+    final Workbook workbook;
+    try
+    {
+      workbook = Workbook.getWorkbook(_file);
+    }
+    catch (BiffException e)
+    {
+      throw new IOException("Could not read " + _file, e);
+    }
+
+    final Sheet sheet = _sheetName.isEmpty() ? workbook.getSheet(0) : workbook.getSheet(_sheetName);
+    if (sheet == null)
+    {
+      workbook.close();
+      throw new IOException("Sheet '" + _sheetName + "' not found in " + _file);
+    }
+
+    return new RowReader()
+    {
+      private int _row;
+
+      public String[] next()
+      {
+        if (_row >= sheet.getRows())
+        {
+          return null;
+        }
+        String[] cells = new String[sheet.getColumns()];
+        for (int c = 0; c < cells.length; c++)
+        {
+          cells[c] = sheet.getCell(c, _row).getContents();
+        }
+        _row++;
+        return cells;
+      }
+
+      public void close()
+      {
+        workbook.close();
+      }
+    };
+  }
+}
+
+/* CsvDataSource.java core */
+package com.seleniumframework.core;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// RFC 4180 CSV in UTF-8, parsed straight out of a memory-mapped file (up to 2 GB)
+public class CsvDataSource implements DataSource
+{
+  private final File _file;
+  private final byte _separator;
+
+  public CsvDataSource(File file, char separator)
+  {
+    _file = file;
+    _separator = (byte) separator;
+  }
+
+  public long lastModified()
+  {
+    return _file.lastModified();
+  }
+
+  public RowReader open() throws IOException
+  {
+    final MappedByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(_file.toPath(), StandardOpenOption.READ))
+    {
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    // Skip a UTF-8 byte order mark
+    if (buffer.remaining() >= 3 && buffer.get(0) == (byte) 0xEF && buffer.get(1) == (byte) 0xBB && buffer.get(2) == (byte) 0xBF)
+    {
+      buffer.position(3);
+    }
+
+    return new RowReader()
+    {
+      private byte[] _field = new byte[256];
+      private int _length;
+
+      public String[] next()
+      {
+        if (!buffer.hasRemaining())
+        {
+          return null;
+        }
+
+        List<String> cells = new ArrayList<String>();
+        boolean inQuotes = false;
+        _length = 0;
+        while (buffer.hasRemaining())
+        {
+          byte b = buffer.get();
+          if (inQuotes)
+          {
+            if (b != '"')
+            {
+              append(b);
+            }
+            else if (buffer.hasRemaining() && buffer.get(buffer.position()) == '"')
+            {
+              buffer.get();
+              append(b);
+            }
+            else
+            {
+              inQuotes = false;
+            }
+          }
+          else if (b == '"')
+          {
+            inQuotes = true;
+          }
+          else if (b == _separator)
+          {
+            cells.add(field());
+          }
+          else if (b == '\n')
+          {
+            break;
+          }
+          else if (b == '\r')
+          {
+            if (buffer.hasRemaining() && buffer.get(buffer.position()) == '\n')
+            {
+              buffer.get();
+            }
+            break;
+          }
+          else
+          {
+            append(b);
+          }
+        }
+        cells.add(field());
+        return cells.toArray(new String[cells.size()]);
+      }
+
+      public void close()
+      {
+        // The mapping is released with the buffer
+      }
+
+      private void append(byte b)
+      {
+        if (_length == _field.length)
+        {
+          _field = Arrays.copyOf(_field, _length * 2);
+        }
+        _field[_length++] = b;
+      }
+
+      private String field()
+      {
+        String value = new String(_field, 0, _length, StandardCharsets.UTF_8);
+        _length = 0;
+        return value;
+      }
+    };
+  }
+}
+
+/* XlsxDataSource.java core */
+package com.seleniumframework.core;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+// .xlsx workbooks read with a StAX pull parser, one row in memory at a time.
+// Only the shared string table and the number formats are held in full, as every cell may point into them.
+public class XlsxDataSource implements DataSource
+{
+  private static final String RELATIONSHIP_NS = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+
+  // Number formats every workbook has without listing them in styles.xml
+  private static final Map<Integer, String> BUILT_IN_FORMATS = new HashMap<Integer, String>();
+  static
+  {
+    BUILT_IN_FORMATS.put(1, "0");
+    BUILT_IN_FORMATS.put(2, "0.00");
+    BUILT_IN_FORMATS.put(3, "#,##0");
+    BUILT_IN_FORMATS.put(4, "#,##0.00");
+    BUILT_IN_FORMATS.put(9, "0%");
+    BUILT_IN_FORMATS.put(10, "0.00%");
+    BUILT_IN_FORMATS.put(14, "m/d/yyyy");
+    BUILT_IN_FORMATS.put(15, "d-mmm-yy");
+    BUILT_IN_FORMATS.put(16, "d-mmm");
+    BUILT_IN_FORMATS.put(17, "mmm-yy");
+    BUILT_IN_FORMATS.put(18, "h:mm AM/PM");
+    BUILT_IN_FORMATS.put(19, "h:mm:ss AM/PM");
+    BUILT_IN_FORMATS.put(20, "h:mm");
+    BUILT_IN_FORMATS.put(21, "h:mm:ss");
+    BUILT_IN_FORMATS.put(22, "m/d/yyyy h:mm");
+    BUILT_IN_FORMATS.put(45, "mm:ss");
+    BUILT_IN_FORMATS.put(46, "[h]:mm:ss");
+    BUILT_IN_FORMATS.put(47, "mm:ss.0");
+  }
+
+  private final File _file;
+  private final String _sheetName;
+  private final XMLInputFactory _factory = XMLInputFactory.newInstance();
+
+  public XlsxDataSource(File file, String sheetName)
+  {
+    _file = file;
+    _sheetName = sheetName;
+    _factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+  }
+
+  public long lastModified()
+  {
+    return _file.lastModified();
+  }
+
+  public RowReader open() throws IOException
+  {
+    final ZipFile zip = new ZipFile(_file);
+    try
+    {
+      final List<String> shared = readSharedStrings(zip);
+      final CellFormats formats = readFormats(zip);
+      final InputStream in = zip.getInputStream(entry(zip, sheetPath(zip)));
+      final XMLStreamReader xml = _factory.createXMLStreamReader(in);
+
+      return new RowReader()
+      {
+        private int _nextRow = 1;
+        private String[] _pending;
+        private int _blankRows;
+
+        public String[] next() throws IOException
+        {
+          try
+          {
+            // Rows missing from the sheet are blank, hand them out so row numbers line up
+            if (_blankRows > 0)
+            {
+              _blankRows--;
+              _nextRow++;
+              return new String[0];
+            }
+            if (_pending != null)
+            {
+              String[] row = _pending;
+              _pending = null;
+              _nextRow++;
+              return row;
+            }
+
+            while (xml.hasNext())
+            {
+              if (xml.next() == XMLStreamConstants.START_ELEMENT && xml.getLocalName().equals("row"))
+              {
+                String r = xml.getAttributeValue(null, "r");
+                int number = r == null ? _nextRow : Integer.parseInt(r);
+                String[] row = readRow(xml, shared, formats);
+                if (number > _nextRow)
+                {
+                  _pending = row;
+                  _blankRows = number - _nextRow - 1;
+                  _nextRow++;
+                  return new String[0];
+                }
+                _nextRow++;
+                return row;
+              }
+            }
+            return null;
+          }
+          catch (XMLStreamException e)
+          {
+            throw new IOException("Could not read " + _file, e);
+          }
+        }
+
+        public void close() throws IOException
+        {
+          try
+          {
+            xml.close();
+          }
+          catch (XMLStreamException e)
+          {
+            // Closing the zip releases the stream anyway
+          }
+          in.close();
+          zip.close();
+        }
+      };
+    }
+    catch (IOException | XMLStreamException | RuntimeException e)
+    {
+      zip.close();
+      throw e instanceof IOException ? (IOException) e : new IOException("Could not read " + _file, e);
+    }
+  }
+
+  private static String[] readRow(XMLStreamReader xml, List<String> shared, CellFormats formats) throws XMLStreamException
+  {
+    List<String> cells = new ArrayList<String>();
+    String type = null;
+    String style = null;
+    int column = -1;
+    StringBuilder value = null;
+    while (xml.hasNext())
+    {
+      int event = xml.next();
+      if (event == XMLStreamConstants.START_ELEMENT)
+      {
+        String name = xml.getLocalName();
+        if (name.equals("c"))
+        {
+          type = xml.getAttributeValue(null, "t");
+          style = xml.getAttributeValue(null, "s");
+          String ref = xml.getAttributeValue(null, "r");
+          column = ref == null ? cells.size() : columnOf(ref);
+          value = new StringBuilder();
+        }
+        else if ((name.equals("v") || name.equals("t")) && value != null)
+        {
+          value.append(xml.getElementText());
+        }
+      }
+      else if (event == XMLStreamConstants.END_ELEMENT)
+      {
+        String name = xml.getLocalName();
+        if (name.equals("c"))
+        {
+          String text = value.toString();
+          if ("s".equals(type) && !text.isEmpty())
+          {
+            text = shared.get(Integer.parseInt(text));
+          }
+          else if ("b".equals(type))
+          {
+            text = "1".equals(text) ? "TRUE" : "FALSE";
+          }
+          else if ((type == null || "n".equals(type)) && !text.isEmpty())
+          {
+            text = formats.apply(text, style);
+          }
+          while (cells.size() < column)
+          {
+            cells.add("");
+          }
+          cells.add(text);
+          value = null;
+        }
+        else if (name.equals("row"))
+        {
+          break;
+        }
+      }
+    }
+    return cells.toArray(new String[cells.size()]);
+  }
+
+  // "AB12" -> 27
+  private static int columnOf(String ref)
+  {
+    int column = 0;
+    for (int i = 0; i < ref.length() && Character.isLetter(ref.charAt(i)); i++)
+    {
+      column = column * 26 + (Character.toUpperCase(ref.charAt(i)) - 'A' + 1);
+    }
+    return column - 1;
+  }
+
+  private List<String> readSharedStrings(ZipFile zip) throws IOException, XMLStreamException
+  {
+    List<String> strings = new ArrayList<String>();
+    ZipEntry entry = zip.getEntry("xl/sharedStrings.xml");
+    if (entry == null)
+    {
+      return strings;
+    }
+    try (InputStream in = zip.getInputStream(entry))
+    {
+      XMLStreamReader xml = _factory.createXMLStreamReader(in);
+      StringBuilder text = null;
+      while (xml.hasNext())
+      {
+        int event = xml.next();
+        if (event == XMLStreamConstants.START_ELEMENT && xml.getLocalName().equals("si"))
+        {
+          text = new StringBuilder();
+        }
+        else if (event == XMLStreamConstants.START_ELEMENT && xml.getLocalName().equals("t") && text != null)
+        {
+          text.append(xml.getElementText());
+        }
+        else if (event == XMLStreamConstants.END_ELEMENT && xml.getLocalName().equals("si"))
+        {
+          strings.add(text.toString());
+          text = null;
+        }
+      }
+      xml.close();
+    }
+    return strings;
+  }
+
+  // cellXfs from styles.xml resolved to format codes, plus the workbook's date system
+  private CellFormats readFormats(ZipFile zip) throws IOException, XMLStreamException
+  {
+    List<String> codes = new ArrayList<String>();
+    ZipEntry entry = zip.getEntry("xl/styles.xml");
+    if (entry != null)
+    {
+      Map<Integer, String> custom = new HashMap<Integer, String>();
+      List<Integer> ids = new ArrayList<Integer>();
+      try (InputStream in = zip.getInputStream(entry))
+      {
+        XMLStreamReader xml = _factory.createXMLStreamReader(in);
+        boolean cellXfs = false;
+        while (xml.hasNext())
+        {
+          int event = xml.next();
+          if (event == XMLStreamConstants.START_ELEMENT)
+          {
+            String name = xml.getLocalName();
+            if (name.equals("numFmt"))
+            {
+              custom.put(Integer.valueOf(xml.getAttributeValue(null, "numFmtId")), xml.getAttributeValue(null, "formatCode"));
+            }
+            else if (name.equals("cellXfs"))
+            {
+              cellXfs = true;
+            }
+            else if (name.equals("xf") && cellXfs)
+            {
+              String id = xml.getAttributeValue(null, "numFmtId");
+              ids.add(id == null ? 0 : Integer.parseInt(id));
+            }
+          }
+          else if (event == XMLStreamConstants.END_ELEMENT && xml.getLocalName().equals("cellXfs"))
+          {
+            break;
+          }
+        }
+        xml.close();
+      }
+      for (Integer id : ids)
+      {
+        String code = custom.get(id);
+        codes.add(code != null ? code : BUILT_IN_FORMATS.get(id));
+      }
+    }
+
+    boolean date1904 = false;
+    try (InputStream in = zip.getInputStream(entry(zip, "xl/workbook.xml")))
+    {
+      XMLStreamReader xml = _factory.createXMLStreamReader(in);
+      while (xml.hasNext())
+      {
+        if (xml.next() == XMLStreamConstants.START_ELEMENT)
+        {
+          if (xml.getLocalName().equals("workbookPr"))
+          {
+            String flag = xml.getAttributeValue(null, "date1904");
+            date1904 = "1".equals(flag) || "true".equals(flag);
+          }
+          else if (xml.getLocalName().equals("sheets"))
+          {
+            break;
+          }
+        }
+      }
+      xml.close();
+    }
+    return new CellFormats(codes, date1904);
+  }
+
+  // Follows workbook.xml and its relationships to the sheet's part, the first sheet by default
+  private String sheetPath(ZipFile zip) throws IOException, XMLStreamException
+  {
+    String relationshipId = null;
+    try (InputStream in = zip.getInputStream(entry(zip, "xl/workbook.xml")))
+    {
+      XMLStreamReader xml = _factory.createXMLStreamReader(in);
+      while (xml.hasNext() && relationshipId == null)
+      {
+        if (xml.next() == XMLStreamConstants.START_ELEMENT && xml.getLocalName().equals("sheet")
+          && (_sheetName.isEmpty() || _sheetName.equals(xml.getAttributeValue(null, "name"))))
+        {
+          relationshipId = xml.getAttributeValue(RELATIONSHIP_NS, "id");
+        }
+      }
+      xml.close();
+    }
+    if (relationshipId == null)
+    {
+      throw new IOException("Sheet '" + _sheetName + "' not found in " + _file);
+    }
+
+    Map<String, String> targets = new HashMap<String, String>();
+    try (InputStream in = zip.getInputStream(entry(zip, "xl/_rels/workbook.xml.rels")))
+    {
+      XMLStreamReader xml = _factory.createXMLStreamReader(in);
+      while (xml.hasNext())
+      {
+        if (xml.next() == XMLStreamConstants.START_ELEMENT && xml.getLocalName().equals("Relationship"))
+        {
+          targets.put(xml.getAttributeValue(null, "Id"), xml.getAttributeValue(null, "Target"));
+        }
+      }
+      xml.close();
+    }
+    String target = targets.get(relationshipId);
+    if (target == null)
+    {
+      throw new IOException("Sheet part for '" + relationshipId + "' not found in " + _file);
+    }
+    return target.startsWith("/") ? target.substring(1) : "xl/" + target;
+  }
+
+  private ZipEntry entry(ZipFile zip, String name) throws IOException
+  {
+    ZipEntry entry = zip.getEntry(name);
+    if (entry == null)
+    {
+      throw new IOException(name + " not found in " + _file);
+    }
+    return entry;
+  }
+
+  // Renders numeric cells the way the sheet displays them, as jxl's getContents() does for .xls.
+  // Dates are serial day numbers in the file and only become dates through their format.
+  private static final class CellFormats
+  {
+    private final List<String> _codes;
+    private final boolean _date1904;
+    private final Map<String, DateTimeFormatter> _dates = new HashMap<String, DateTimeFormatter>();
+    private final Map<String, DecimalFormat> _numbers = new HashMap<String, DecimalFormat>();
+
+    CellFormats(List<String> codes, boolean date1904)
+    {
+      _codes = codes;
+      _date1904 = date1904;
+    }
+
+    String apply(String raw, String style)
+    {
+      String code = null;
+      if (style != null)
+      {
+        int index = Integer.parseInt(style);
+        code = index < _codes.size() ? _codes.get(index) : null;
+      }
+      try
+      {
+        // Only the first section applies to positive numbers, which is what test data holds
+        code = code == null ? "" : code.split(";", -1)[0];
+        if (isDate(code))
+        {
+          return date(code).format(toDateTime(Double.parseDouble(raw)));
+        }
+        String digits = code.replaceAll("\\[[^\\]]*\\]", "");
+        if (digits.matches("[0#,.%]+"))
+        {
+          return number(digits).format(new BigDecimal(raw));
+        }
+        // General: at most 15 significant digits, no exponent, no trailing zeros
+        BigDecimal value = new BigDecimal(raw).round(new MathContext(15, RoundingMode.HALF_UP)).stripTrailingZeros();
+        return value.signum() == 0 ? "0" : value.toPlainString();
+      }
+      catch (IllegalArgumentException e)
+      {
+        return raw;
+      }
+    }
+
+    private LocalDateTime toDateTime(double serial)
+    {
+      long days = (long) Math.floor(serial);
+      long millis = Math.round((serial - days) * 86400000d);
+      LocalDateTime epoch;
+      if (_date1904)
+      {
+        epoch = LocalDateTime.of(1904, 1, 1, 0, 0);
+      }
+      else
+      {
+        // Serial 60 is Excel's 29 Feb 1900, a day that never existed
+        epoch = days < 61 ? LocalDateTime.of(1899, 12, 31, 0, 0) : LocalDateTime.of(1899, 12, 30, 0, 0);
+      }
+      return epoch.plusDays(days).plusNanos(millis * 1000000L);
+    }
+
+    private static boolean isDate(String code)
+    {
+      // Quoted text, escapes, colours and locales say nothing about dates; [h] elapsed time does
+      String bare = code.replaceAll("(?i)\\[(h+|m+|s+)\\]", "h").replaceAll("\"[^\"]*\"|\\\\.|\\[[^\\]]*\\]", "");
+      return bare.matches("(?i).*[ymdhs].*");
+    }
+
+    private synchronized DecimalFormat number(String code)
+    {
+      DecimalFormat format = _numbers.get(code);
+      if (format == null)
+      {
+        format = new DecimalFormat(code, DecimalFormatSymbols.getInstance(Locale.US));
+        format.setRoundingMode(RoundingMode.HALF_UP);
+        _numbers.put(code, format);
+      }
+      return format;
+    }
+
+    private synchronized DateTimeFormatter date(String code)
+    {
+      DateTimeFormatter format = _dates.get(code);
+      if (format == null)
+      {
+        format = DateTimeFormatter.ofPattern(toPattern(code), Locale.US);
+        _dates.put(code, format);
+      }
+      return format;
+    }
+
+    // Excel date codes to DateTimeFormatter patterns: "m" is minutes after an hour or before seconds
+    private static String toPattern(String code)
+    {
+      boolean twelveHour = code.toUpperCase(Locale.US).contains("AM/PM") || code.toUpperCase(Locale.US).contains("A/P");
+      StringBuilder pattern = new StringBuilder();
+      char last = 0;
+      int i = 0;
+      while (i < code.length())
+      {
+        char c = code.charAt(i);
+        char lower = Character.toLowerCase(c);
+        int run = 1;
+        while (i + run < code.length() && Character.toLowerCase(code.charAt(i + run)) == lower
+          && (Character.isLetter(c) || c == '0'))
+        {
+          run++;
+        }
+        if (c == '"')
+        {
+          int end = code.indexOf('"', i + 1);
+          end = end < 0 ? code.length() : end;
+          pattern.append(quote(code.substring(i + 1, end)));
+          i = end + 1;
+          continue;
+        }
+        if (c == '\\' && i + 1 < code.length())
+        {
+          pattern.append(quote(code.substring(i + 1, i + 2)));
+          i += 2;
+          continue;
+        }
+        if (c == '[')
+        {
+          // [h] elapsed hours read as plain hours, colours and locales dropped
+          int end = code.indexOf(']', i);
+          end = end < 0 ? code.length() - 1 : end;
+          String inner = code.substring(i + 1, end);
+          if (inner.matches("(?i)h+"))
+          {
+            pattern.append(twelveHour ? "h" : "H");
+            last = 'h';
+          }
+          i = end + 1;
+          continue;
+        }
+        if (code.regionMatches(true, i, "AM/PM", 0, 5))
+        {
+          pattern.append('a');
+          i += 5;
+          continue;
+        }
+        if (code.regionMatches(true, i, "A/P", 0, 3))
+        {
+          pattern.append('a');
+          i += 3;
+          continue;
+        }
+        switch (lower)
+        {
+          case 'y':
+            pattern.append(run <= 2 ? "yy" : "yyyy");
+            break;
+          case 'd':
+            pattern.append(run == 1 ? "d" : run == 2 ? "dd" : run == 3 ? "EEE" : "EEEE");
+            break;
+          case 'h':
+            pattern.append(repeat(twelveHour ? 'h' : 'H', Math.min(run, 2)));
+            break;
+          case 's':
+            pattern.append(repeat('s', Math.min(run, 2)));
+            break;
+          case 'm':
+            boolean minutes = last == 'h' || code.substring(i + run).matches("(?i)[^a-z]*s.*");
+            pattern.append(minutes ? repeat('m', Math.min(run, 2)) : run <= 2 ? repeat('M', run) : run == 3 ? "MMM" : "MMMM");
+            break;
+          case '0':
+            // "ss.000" is seconds with milliseconds
+            pattern.append(repeat(last == 's' && pattern.length() > 0 && pattern.charAt(pattern.length() - 1) == '.' ? 'S' : '0', run));
+            break;
+          default:
+            pattern.append(Character.isLetter(c) || "[]#{}'".indexOf(c) >= 0 ? quote(String.valueOf(c)) : String.valueOf(c));
+        }
+        if (Character.isLetter(c))
+        {
+          last = lower;
+        }
+        i += run;
+      }
+      return pattern.toString();
+    }
+
+    private static String quote(String text)
+    {
+      return text.isEmpty() ? "" : "'" + text.replace("'", "''") + "'";
+    }
+
+    private static String repeat(char c, int count)
+    {
+      StringBuilder text = new StringBuilder();
+      for (int i = 0; i < count; i++)
+      {
+        text.append(c);
+      }
+      return text.toString();
+    }
+  }
+}
+
+/* DataTable.java core */
+package com.seleniumframework.core;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import jxl.read.biff.BiffException;
+
+public class DataTable
+{
+  private static volatile DataSource _source = sourceFor(System.getProperty("datatable.path", "src/test/resources/TestData.xls"),
+    System.getProperty("datatable.sheet", ""));
+  private static final long _checkIntervalMillis = 1000;
+
+  // Parsed sheet shared by all threads, replaced as a whole when the file changes
+  private static volatile Snapshot _snapshot;
+  private static final ThreadLocal<Row> _currentRow = new ThreadLocal<Row>();
+  private static volatile long _nextCheck;
+
+  // Streamed summaries, dropped when the source changes
+  private static Row _firstRow;
+  private static int _rowCount = -1;
+  private static long _summaryModified;
+
+  public static synchronized void setDataSource(String filePath, String sheetName)
+  {
+    setDataSource(sourceFor(filePath, sheetName));
+  }
+
+  public static synchronized void setDataSource(DataSource source)
+  {
+    _source = source;
+    _snapshot = null;
+    _firstRow = null;
+    _rowCount = -1;
+  }
+
+  // Picks the reader by extension: .csv, .xlsx, anything else is read as .xls with jxl
+  public static DataSource sourceFor(String filePath, String sheetName)
+  {
+    File file = new File(filePath);
+    String name = file.getName().toLowerCase();
+    if (name.endsWith(".csv"))
+    {
+      return new CsvDataSource(file, ',');
+    }
+    if (name.endsWith(".xlsx"))
+    {
+      return new XlsxDataSource(file, sheetName);
+    }
+    return new JxlDataSource(file, sheetName);
+  }
+
+  // Row 0 is the header row, data rows start at 1.
+  // Random access parses the whole sheet into a shared index, streaming callers use rows() or firstRow().
+  public static String getCellValue(String column, int row) throws BiffException, IOException
+  {
+    Snapshot snapshot = getSnapshot();
+    Integer col = snapshot.columns.get(column);
+    if (col == null)
+    {
+      throw new IllegalArgumentException("Column '" + column + "' not found in " + _source);
+    }
+    if (row < 1 || row >= snapshot.cells.length)
+    {
+      throw new IndexOutOfBoundsException("Row " + row + " not found in " + _source);
+    }
+    String[] cells = snapshot.cells[row];
+    return col < cells.length ? cells[col] : "";
+  }
+
+  // Counted in a streamed pass, no row is kept
+  public static synchronized int getRowCount() throws BiffException, IOException
+  {
+    checkSummary();
+    if (_rowCount < 0)
+    {
+      int count = 0;
+      try (DataSource.RowReader reader = _source.open())
+      {
+        if (reader.next() != null)
+        {
+          while (reader.next() != null)
+          {
+            count++;
+          }
+        }
+      }
+      _rowCount = count;
+    }
+    return _rowCount;
+  }
+
+  // Data row 1 read straight from the source, for values every row shares
+  public static synchronized Row firstRow() throws BiffException, IOException
+  {
+    checkSummary();
+    if (_firstRow == null)
+    {
+      try (DataSource.RowReader reader = _source.open())
+      {
+        String[] header = reader.next();
+        String[] cells = header == null ? null : reader.next();
+        if (cells == null)
+        {
+          throw new IndexOutOfBoundsException("Row 1 not found in " + _source);
+        }
+        _firstRow = new Row(1, indexColumns(header), cells);
+      }
+    }
+    return _firstRow;
+  }
+
+  private static void checkSummary()
+  {
+    long modified = _source.lastModified();
+    if (modified != _summaryModified)
+    {
+      _firstRow = null;
+      _rowCount = -1;
+      _summaryModified = modified;
+    }
+  }
+
+  // Binds the data row the test on this thread works with, null unbinds it
+  public static void useRow(Row row)
+  {
+    if (row == null)
+    {
+      _currentRow.remove();
+    }
+    else
+    {
+      _currentRow.set(row);
+    }
+  }
+
+  public static Row currentRow()
+  {
+    return _currentRow.get();
+  }
+
+  public static Row getRow(int row) throws BiffException, IOException
+  {
+    Snapshot snapshot = getSnapshot();
+    if (row < 1 || row >= snapshot.cells.length)
+    {
+      throw new IndexOutOfBoundsException("Row " + row + " not found in " + _source);
+    }
+    return new Row(row, snapshot.columns, snapshot.cells[row]);
+  }
+
+  // Streams the data rows straight from the source without building the in-memory index,
+  // so sheets of any size are read in constant memory
+  public static Iterator<Row> rows() throws IOException
+  {
+    final DataSource.RowReader reader = _source.open();
+    String[] header = reader.next();
+    final Map<String, Integer> columns = indexColumns(header == null ? new String[0] : header);
+
+    return new Iterator<Row>()
+    {
+      private int _index;
+      private String[] _next = read();
+
+      public boolean hasNext()
+      {
+        return _next != null;
+      }
+
+      public Row next()
+      {
+        if (_next == null)
+        {
+          throw new NoSuchElementException();
+        }
+        Row row = new Row(++_index, columns, _next);
+        _next = read();
+        return row;
+      }
+
+      public void remove()
+      {
+        throw new UnsupportedOperationException();
+      }
+
+      private String[] read()
+      {
+        try
+        {
+          String[] cells = reader.next();
+          if (cells == null)
+          {
+            reader.close();
+          }
+          return cells;
+        }
+        catch (IOException e)
+        {
+          throw new UncheckedIOException(e);
+        }
+      }
+    };
+  }
+
+  // One data row with its values already bound, independent of the shared index
+  public static final class Row
+  {
+    private final int _index;
+    private final Map<String, Integer> _columns;
+    private final String[] _cells;
+
+    Row(int index, Map<String, Integer> columns, String[] cells)
+    {
+      _index = index;
+      _columns = columns;
+      _cells = cells;
+    }
+
+    public int getIndex()
+    {
+      return _index;
+    }
+
+    public String get(String column)
+    {
+      String value = value(column);
+      ChangeSelection.touchCell(_index, column, value);
+      return value;
+    }
+
+    // Reads the cell without recording it as a dependency of the running test
+    String value(String column)
+    {
+      Integer col = _columns.get(column);
+      if (col == null)
+      {
+        throw new IllegalArgumentException("Column '" + column + "' not found");
+      }
+      return col < _cells.length ? _cells[col] : "";
+    }
+
+    @Override
+    public String toString()
+    {
+      return "row " + _index;
+    }
+  }
+
+  private static Snapshot getSnapshot() throws IOException
+  {
+    Snapshot snapshot = _snapshot;
+    if (snapshot != null && System.currentTimeMillis() < _nextCheck)
+    {
+      return snapshot;
+    }
+
+    synchronized (DataTable.class)
+    {
+      long now = System.currentTimeMillis();
+      snapshot = _snapshot;
+      if (snapshot != null && now < _nextCheck)
+      {
+        return snapshot;
+      }
+
+      // Only check the source once per interval, reparse when it changed
+      long modified = _source.lastModified();
+      if (snapshot == null || snapshot.modified != modified)
+      {
+        snapshot = load(_source, modified);
+        _snapshot = snapshot;
+      }
+      _nextCheck = now + _checkIntervalMillis;
+      return snapshot;
+    }
+  }
+
+  private static Snapshot load(DataSource source, long modified) throws IOException
+  {
+    List<String[]> rows = new ArrayList<String[]>();
+    try (DataSource.RowReader reader = source.open())
+    {
+      String[] cells;
+      while ((cells = reader.next()) != null)
+      {
+        rows.add(cells);
+      }
+    }
+    Map<String, Integer> columns = indexColumns(rows.isEmpty() ? new String[0] : rows.get(0));
+    return new Snapshot(columns, rows.toArray(new String[rows.size()][]), modified);
+  }
+
+  private static Map<String, Integer> indexColumns(String[] header)
+  {
+    Map<String, Integer> columns = new HashMap<String, Integer>();
+    for (int c = 0; c < header.length; c++)
+    {
+      columns.put(header[c], c);
+    }
+    return Collections.unmodifiableMap(columns);
+  }
+
+  private static final class Snapshot
+  {
+    final Map<String, Integer> columns;
+    final String[][] cells;
+    final long modified;
+
+    Snapshot(Map<String, Integer> columns, String[][] cells, long modified)
+    {
+      this.columns = columns;
+      this.cells = cells;
+      this.modified = modified;
+    }
+  }
+}
+
+/* DriverContext.java core */
+package com.seleniumframework.core;
+import org.openqa.selenium.WebDriver;
+
+// Driver the webelements resolve against on the current thread
+public final class DriverContext
+{
+  private static final ThreadLocal<WebDriver> _driver = new ThreadLocal<WebDriver>();
+  private static final ThreadLocal<long[]> _pageGeneration = new ThreadLocal<long[]>()
+  {
+    @Override
+    protected long[] initialValue()
+    {
+      return new long[1];
+    }
+  };
+
+  private DriverContext()
+  {
+  }
+
+  public static WebDriver current()
+  {
+    return _driver.get();
+  }
+
+  public static WebDriver getDriver()
+  {
+    WebDriver driver = _driver.get();
+    if (driver == null)
+    {
+      throw new IllegalStateException("No WebDriver bound to thread " + Thread.currentThread().getName());
+    }
+    return driver;
+  }
+
+  public static void bind(WebDriver driver)
+  {
+    _driver.set(driver);
+    pageChanged();
+  }
+
+  // Bumped whenever the current page is replaced, elements resolved before that are discarded
+  public static long getPageGeneration()
+  {
+    return _pageGeneration.get()[0];
+  }
+
+  public static void pageChanged()
+  {
+    _pageGeneration.get()[0]++;
+  }
+
+  public static void unbind()
+  {
+    _driver.remove();
+  }
+
+  // Temporarily run page objects against another driver, restores the previous one on close
+  public static Scope use(WebDriver driver)
+  {
+    Scope scope = new Scope(_driver.get());
+    bind(driver);
+    return scope;
+  }
+
+  public static final class Scope implements AutoCloseable
+  {
+    private final WebDriver _previous;
+
+    private Scope(WebDriver previous)
+    {
+      _previous = previous;
+    }
+
+    @Override
+    public void close()
+    {
+      if (_previous == null)
+      {
+        _driver.remove();
+      }
+      else
+      {
+        _driver.set(_previous);
+      }
+      pageChanged();
+    }
+  }
+}
+
+/* Element.java webelement */
+package com.seleniumframework.webelements;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.openqa.selenium.By;
+import org.openqa.selenium.ElementNotInteractableException;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.NoSuchElementException;
+import org.openqa.selenium.StaleElementReferenceException;
+import org.openqa.selenium.TimeoutException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+import org.testng.Assert;
+import com.seleniumframework.core.ChangeSelection;
+import com.seleniumframework.core.DriverContext;
+import com.seleniumframework.core.Log;
+import com.seleniumframework.core.Screenshot;
+import com.seleniumframework.core.SmartWait;
+import com.seleniumframework.core.Timings;
+
+// Holds only the name and locator, so one instance can be shared by all threads.
+// The WebElement is looked up on the driver bound to the calling thread.
+public class Element
+{
+  private static final String VISIBLE_JS = ScriptLocator.RESOLVE_JS
+    + "var locs = arguments[0], result = [];"
+    + "for (var i = 0; i < locs.length; i++) {"
+    + "  if (!locs[i]) { result.push(null); continue; }"
+    + "  var el = __sfResolve(locs[i]);"
+    + "  if (!el) { result.push(false); continue; }"
+    + "  var style = window.getComputedStyle(el);"
+    + "  result.push(style.display !== 'none' && style.visibility !== 'hidden'"
+    + "    && el.getClientRects().length > 0);"
+    + "}"
+    + "return result;";
+
+  // Elements resolved on this thread, valid for one driver and page generation
+  private static final ThreadLocal<Map<Element, Resolved>> _resolved = new ThreadLocal<Map<Element, Resolved>>()
+  {
+    @Override
+    protected Map<Element, Resolved> initialValue()
+    {
+      return new HashMap<Element, Resolved>();
+    }
+  };
+
+  // Lookup counters for the current thread, index 0 is hits and 1 is misses
+  private static final ThreadLocal<long[]> _cacheStats = new ThreadLocal<long[]>()
+  {
+    @Override
+    protected long[] initialValue()
+    {
+      return new long[2];
+    }
+  };
+
+  private final String _name;
+  private final By _declared;
+  // Worked out on first use, so loading a page section only costs the field assignments
+  private volatile Locator _locator;
+
+  public Element(String name, By locator)
+  {
+    _name = name;
+    _declared = locator;
+  }
+
+  public static long getCacheHits()
+  {
+    return _cacheStats.get()[0];
+  }
+
+  public static long getCacheMisses()
+  {
+    return _cacheStats.get()[1];
+  }
+
+  public static void resetCacheStats()
+  {
+    long[] stats = _cacheStats.get();
+    stats[0] = 0;
+    stats[1] = 0;
+  }
+
+  public String getName()
+  {
+    return _name;
+  }
+
+  public By getLocator()
+  {
+    return locator().by;
+  }
+
+  // Locator in the form the page scripts take, null when it can't be evaluated in the page
+  String[] getScriptLocator()
+  {
+    return locator().script;
+  }
+
+  // Two threads may both optimize the locator on first use, they get the same result
+  private Locator locator()
+  {
+    Locator locator = _locator;
+    if (locator == null)
+    {
+      locator = new Locator(_name, LocatorOptimizer.optimize(_name, _declared));
+      _locator = locator;
+    }
+    return locator;
+  }
+
+  protected WebDriver getDriver()
+  {
+    return DriverContext.getDriver();
+  }
+
+  protected WebElement find()
+  {
+    touch();
+    WebDriver driver = getDriver();
+    long generation = DriverContext.getPageGeneration();
+    Resolved resolved = _resolved.get().get(this);
+    if (resolved != null && resolved.driver == driver && resolved.generation == generation)
+    {
+      _cacheStats.get()[0]++;
+      return resolved.element;
+    }
+
+    _cacheStats.get()[1]++;
+    long start = System.nanoTime();
+    Locator locator = locator();
+    WebElement element = driver.findElement(locator.by);
+    Timings.recordAction(locator.timingKey, "find", System.nanoTime() - start);
+    resolved = new Resolved(driver, generation, element);
+    _resolved.get().put(this, resolved);
+    return resolved.element;
+  }
+
+  // Records the element type with its superclasses and the page section declaring it as dependencies
+  // of the running test
+  void touch()
+  {
+    ChangeSelection.touchClass(locator().owner);
+    for (Class<?> type = getClass(); type != Object.class; type = type.getSuperclass())
+    {
+      ChangeSelection.touchClass(type.getName());
+    }
+  }
+
+  protected void invalidate()
+  {
+    _resolved.get().remove(this);
+  }
+
+  protected interface Action<T>
+  {
+    T run(WebElement element);
+  }
+
+  protected <T> T act(String action, String message, Action<T> body)
+  {
+    return act(action, message, true, body);
+  }
+
+  // Runs an action on the element. When waiting is allowed, transient failures are retried under the
+  // RetryPolicy with the element looked up again each time, and a missing or hidden element is first
+  // waited for in the page. Otherwise only a stale element is looked up again, once.
+  // The action is timed, and logged when a message is given.
+  protected <T> T act(String action, String message, boolean wait, Action<T> body)
+  {
+    long start = System.nanoTime();
+    long failedAt = 0;
+    try
+    {
+      T result;
+      for (int retry = 1; ; retry++)
+      {
+        try
+        {
+          result = body.run(find());
+          break;
+        }
+        catch (RuntimeException e)
+        {
+          if (!RetryPolicy.isRetryable(e) || (!wait && (retry > 1 || !(e instanceof StaleElementReferenceException))))
+          {
+            throw e;
+          }
+          if (failedAt == 0)
+          {
+            failedAt = System.nanoTime();
+          }
+          RetryPolicy.beforeRetry(_name, action, retry, failedAt, e);
+          invalidate();
+          if (wait && retry == 1 && (e instanceof NoSuchElementException || e instanceof ElementNotInteractableException))
+          {
+            awaitVisible();
+          }
+        }
+      }
+      if (failedAt != 0)
+      {
+        RetryPolicy.charge(System.nanoTime() - failedAt, true);
+      }
+      long elapsed = System.nanoTime() - start;
+      Timings.recordAction(locator().timingKey, action, elapsed);
+      if (message != null)
+      {
+        Log.action(_name, action, elapsed, Log.Outcome.PASS, message);
+      }
+      return result;
+    }
+    catch (RuntimeException e)
+    {
+      if (failedAt != 0)
+      {
+        RetryPolicy.charge(System.nanoTime() - failedAt, false);
+      }
+      long elapsed = System.nanoTime() - start;
+      Timings.recordAction(locator().timingKey, action, elapsed);
+      if (message != null)
+      {
+        Log.action(_name, action, elapsed, Log.Outcome.FAIL, e.getClass().getSimpleName() + ": " + message);
+        Screenshot.onFailure(_name + " " + action);
+      }
+      throw e;
+    }
+  }
+
+  public boolean isDisplayed()
+  {
+    try
+    {
+      return act("verify", null, false, element -> element.isDisplayed());
+    }
+    catch (NoSuchElementException e)
+    {
+      return false;
+    }
+  }
+
+  // Blocks until the element is visible, false when its locator can't be checked in the page
+  protected boolean awaitVisible()
+  {
+    String[] locator = locator().script;
+    if (locator == null)
+    {
+      return false;
+    }
+    SmartWait.untilVisible(_name, Arrays.asList(locator));
+    invalidate();
+    return true;
+  }
+
+  // Blocks until the page's AJAX calls settled and the element is attached, for content an in-page
+  // transition brings in
+  public void waitUntilLoaded()
+  {
+    SmartWait.untilAjaxIdle();
+    String[] locator = locator().script;
+    if (locator != null)
+    {
+      SmartWait.untilAttached(_name, Arrays.asList(locator));
+      invalidate();
+    }
+  }
+
+  public void verifyDisplayed()
+  {
+    boolean displayed = isDisplayed();
+    if (!displayed)
+    {
+      try
+      {
+        displayed = awaitVisible();
+      }
+      catch (TimeoutException e)
+      {
+        displayed = false;
+      }
+    }
+
+    if (displayed)
+    {
+      Log.pass(_name + " is displayed");
+    }
+    else
+    {
+      Log.fail(_name + " is not displayed");
+      Screenshot.onFailure(_name + " verify");
+      Assert.fail(_name + " is not displayed");
+    }
+  }
+
+  public void click()
+  {
+    act("click", "Clicked " + _name, element ->
+    {
+      element.click();
+      return null;
+    });
+  }
+
+  // Checks every element with one script execution, in the order given
+  public static Map<Element, Boolean> checkAllDisplayed(Element... elements)
+  {
+    List<Object> locators = new ArrayList<Object>();
+    for (Element element : elements)
+    {
+      element.touch();
+      String[] locator = element.locator().script;
+      locators.add(locator == null ? null : Arrays.asList(locator));
+    }
+
+    JavascriptExecutor js = (JavascriptExecutor) DriverContext.getDriver();
+    long start = System.nanoTime();
+    List<?> visible = (List<?>) js.executeScript(VISIBLE_JS, locators);
+    Timings.recordAction("Visibility check of " + elements.length + " elements", "verify", System.nanoTime() - start);
+
+    Map<Element, Boolean> report = new LinkedHashMap<Element, Boolean>();
+    for (int i = 0; i < elements.length; i++)
+    {
+      Object result = visible.get(i);
+      // Locators the script can't resolve are checked one by one
+      report.put(elements[i], result == null ? elements[i].isDisplayed() : (Boolean) result);
+    }
+    return report;
+  }
+
+  public static Map<Element, Boolean> verifyAllDisplayed(Element... elements)
+  {
+    Map<Element, Boolean> report = checkAllDisplayed(elements);
+    List<String> missing = new ArrayList<String>();
+    for (Map.Entry<Element, Boolean> entry : report.entrySet())
+    {
+      String name = entry.getKey()._name;
+      if (!entry.getValue())
+      {
+        // The section may still be rendering, give it until the wait timeout
+        try
+        {
+          entry.setValue(entry.getKey().awaitVisible());
+        }
+        catch (TimeoutException e)
+        {
+          entry.setValue(false);
+        }
+      }
+
+      if (entry.getValue())
+      {
+        Log.pass(name + " is displayed");
+      }
+      else
+      {
+        Log.fail(name + " is not displayed");
+        missing.add(name);
+      }
+    }
+    if (!missing.isEmpty())
+    {
+      Screenshot.onFailure(missing.get(0) + " verify");
+      Assert.fail("Not displayed: " + missing);
+    }
+    return report;
+  }
+
+  private static final class Locator
+  {
+    final By by;
+    final String timingKey;
+    // null when the locator can't be evaluated in the page
+    final String[] script;
+    // Page section the element was first used from, normally the one declaring it
+    final String owner;
+
+    Locator(String name, By by)
+    {
+      this.by = by;
+      this.timingKey = name + " " + by;
+      this.script = ScriptLocator.of(by);
+      this.owner = pageObjectCaller();
+    }
+
+    private static String pageObjectCaller()
+    {
+      for (StackTraceElement frame : new Throwable().getStackTrace())
+      {
+        if (frame.getClassName().startsWith("com.seleniumframework.pageobjects."))
+        {
+          return frame.getClassName();
+        }
+      }
+      return null;
+    }
+  }
+
+  private static final class Resolved
+  {
+    final WebDriver driver;
+    final long generation;
+    final WebElement element;
+
+    Resolved(WebDriver driver, long generation, WebElement element)
+    {
+      this.driver = driver;
+      this.generation = generation;
+      this.element = element;
+    }
+  }
+}
+
+/* RetryPolicy.java webelement */
+package com.seleniumframework.webelements;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openqa.selenium.ElementClickInterceptedException;
+import org.openqa.selenium.ElementNotInteractableException;
+import org.openqa.selenium.NoSuchElementException;
+import org.openqa.selenium.StaleElementReferenceException;
+import org.openqa.selenium.TimeoutException;
+import com.seleniumframework.core.Log;
+
+// How often an element action is retried after a transient failure: a stale element, a click that
+// landed on an overlay, a missing or hidden element, or a timeout. The first retry of a stale, missing
+// or hidden element is immediate, later ones back off from retry.backoffMs, doubling each time.
+// All retries within one test step share retry.stepBudgetMs.
+public final class RetryPolicy
+{
+  private static final int _maxRetries = Integer.getInteger("retry.attempts", 3);
+  private static final long _backoffMillis = Long.getLong("retry.backoffMs", 100);
+  private static final long _maxBackoffMillis = Long.getLong("retry.maxBackoffMs", 2000);
+  private static final long _stepBudgetNanos = TimeUnit.MILLISECONDS.toNanos(Long.getLong("retry.stepBudgetMs", 10000));
+
+  private static final AtomicLong _retries = new AtomicLong();
+  private static final AtomicLong _recovered = new AtomicLong();
+  private static final AtomicLong _exhausted = new AtomicLong();
+
+  // Nanoseconds spent recovering in the current step on this thread
+  private static final ThreadLocal<long[]> _spent = new ThreadLocal<long[]>()
+  {
+    @Override
+    protected long[] initialValue()
+    {
+      return new long[1];
+    }
+  };
+
+  private RetryPolicy()
+  {
+  }
+
+  public static boolean isRetryable(RuntimeException e)
+  {
+    return e instanceof StaleElementReferenceException || e instanceof ElementNotInteractableException
+      || e instanceof NoSuchElementException || e instanceof TimeoutException;
+  }
+
+  public static long getRetryCount()
+  {
+    return _retries.get();
+  }
+
+  // Gives the next step, or the next test on this thread, the full budget again
+  public static void resetStep()
+  {
+    _spent.remove();
+  }
+
+  public static String getSummary()
+  {
+    return "Element action retries: " + _retries.get() + ", recovered actions: " + _recovered.get()
+      + ", actions failed after retrying: " + _exhausted.get();
+  }
+
+  // Waits out the backoff before retry number 'retry' (from 1), or rethrows e when the retries or the
+  // step's budget are used up. failedAt is when the action first failed.
+  static void beforeRetry(String element, String action, int retry, long failedAt, RuntimeException e)
+  {
+    boolean immediate = retry == 1 && !(e instanceof ElementClickInterceptedException) && !(e instanceof TimeoutException);
+    long backoff = immediate ? 0 : Math.min(_maxBackoffMillis, _backoffMillis << Math.min(retry - 1, 20));
+    long spent = spentInStep() + System.nanoTime() - failedAt + TimeUnit.MILLISECONDS.toNanos(backoff);
+    if (retry > _maxRetries || spent > _stepBudgetNanos)
+    {
+      throw e;
+    }
+
+    _retries.incrementAndGet();
+    Log.action(element, action, 0, Log.Outcome.INFO, "Retry " + retry + " of " + _maxRetries + " after "
+      + e.getClass().getSimpleName() + (backoff > 0 ? ", backing off " + backoff + " ms" : ""));
+    if (backoff > 0)
+    {
+      try
+      {
+        Thread.sleep(backoff);
+      }
+      catch (InterruptedException interrupted)
+      {
+        Thread.currentThread().interrupt();
+        throw e;
+      }
+    }
+  }
+
+  // Charges the time an action spent recovering to the current step
+  static void charge(long nanos, boolean recovered)
+  {
+    (recovered ? _recovered : _exhausted).incrementAndGet();
+    _spent.get()[0] += nanos;
+  }
+
+  private static long spentInStep()
+  {
+    return _spent.get()[0];
+  }
+}
+
+/* LocatorOptimizer.java webelement */
+package com.seleniumframework.webelements;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.openqa.selenium.By;
+
+// Rewrites XPath locators that only match on one attribute into id/CSS locators,
+// and keeps track of the ones that have to stay XPath
+public final class LocatorOptimizer
+{
+  // //tag[@attr='value'] or //*[@attr="value"]
+  private static final Pattern ATTRIBUTE_XPATH =
+    Pattern.compile("^//([a-zA-Z][\\w-]*|\\*)\\[@([a-zA-Z][\\w-]*)\\s*=\\s*(['\"])([^'\"]*)\\3\\]$");
+  // (//...)[n]
+  private static final Pattern POSITIONAL_XPATH = Pattern.compile("^\\(.*\\)\\[\\d+\\]$");
+  private static final Pattern CSS_IDENTIFIER = Pattern.compile("^[a-zA-Z_][\\w-]*$");
+  private static final String XPATH_PREFIX = "By.xpath: ";
+
+  private static final Map<String, String> _slow = new ConcurrentHashMap<String, String>();
+
+  private LocatorOptimizer()
+  {
+  }
+
+  public static By optimize(String name, By locator)
+  {
+    String xpath = xpathOf(locator);
+    if (xpath == null)
+    {
+      return locator;
+    }
+
+    Matcher matcher = ATTRIBUTE_XPATH.matcher(xpath);
+    if (matcher.matches())
+    {
+      String tag = matcher.group(1);
+      String attribute = matcher.group(2);
+      String value = matcher.group(4);
+      if (attribute.equals("id") && tag.equals("*"))
+      {
+        return By.id(value);
+      }
+      if (attribute.equals("id") && CSS_IDENTIFIER.matcher(value).matches())
+      {
+        return By.cssSelector(tag + "#" + value);
+      }
+      return By.cssSelector((tag.equals("*") ? "" : tag) + "[" + attribute + "='" + value + "']");
+    }
+
+    _slow.put(name + " " + xpath, isPositional(locator) ? "positional XPath, resolved once per page load" : "XPath");
+    return locator;
+  }
+
+  public static boolean isPositional(By locator)
+  {
+    String xpath = xpathOf(locator);
+    return xpath != null && POSITIONAL_XPATH.matcher(xpath).matches();
+  }
+
+  public static String getSlowLocatorReport()
+  {
+    StringBuilder report = new StringBuilder("Locators left as XPath: " + _slow.size());
+    for (Map.Entry<String, String> entry : new TreeMap<String, String>(_slow).entrySet())
+    {
+      report.append(System.lineSeparator()).append("  ").append(entry.getKey()).append(" (").append(entry.getValue()).append(")");
+    }
+    return report.toString();
+  }
+
+  private static String xpathOf(By locator)
+  {
+    String text = locator.toString();
+    return text.startsWith(XPATH_PREFIX) ? text.substring(XPATH_PREFIX.length()).trim() : null;
+  }
+}
+
+/* Link.java webelement */
+package com.seleniumframework.webelements;
+import org.openqa.selenium.By;
+import com.seleniumframework.core.DriverContext;
+import com.seleniumframework.core.SmartWait;
+
+public class Link extends Element
+{
+  public Link(String name, By locator)
+  {
+    super(name, locator);
+  }
+
+  // Following a link loads a new page, drivers without CDP need the AJAX hooks installed again
+  @Override
+  public void click()
+  {
+    super.click();
+    DriverContext.pageChanged();
+    SmartWait.installHooks(getDriver());
+  }
+}
+
+/* Button.java webelement */
+package com.seleniumframework.webelements;
+import org.openqa.selenium.By;
+
+public class Button extends Element
+{
+  public Button(String name, By locator)
+  {
+    super(name, locator);
+  }
+}
+
+/* CheckBox.java webelement */
+package com.seleniumframework.webelements;
+import org.openqa.selenium.By;
+
+public class CheckBox extends Element
+{
+  public CheckBox(String name, By locator)
+  {
+    super(name, locator);
+  }
+}
+
+/* RadioButton.java webelement */
+package com.seleniumframework.webelements;
+import org.openqa.selenium.By;
+
+public class RadioButton extends Element
+{
+  public RadioButton(String name, By locator)
+  {
+    super(name, locator);
+  }
+}
+
+/* TextBox.java webelement */
+package com.seleniumframework.webelements;
+import org.openqa.selenium.By;
+
+public class TextBox extends Element
+{
+  public TextBox(String name, By locator)
+  {
+    super(name, locator);
+  }
+
+  public void setText(String text)
+  {
+    act("setText", "Entered '" + text + "' in " + getName(), element ->
+    {
+      element.clear();
+      element.sendKeys(text);
+      return null;
+    });
+  }
+}
+
+/* ListBox.java webelement */
+package com.seleniumframework.webelements;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.openqa.selenium.By;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.NoSuchElementException;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.support.ui.Select;
+
+public class ListBox extends Element
+{
+  // Option texts and the option elements themselves, so a selection is a single click afterwards
+  private static final String OPTIONS_JS =
+    "var options = Array.prototype.slice.call(arguments[0].options);"
+    + "return [options.map(function (o) { return o.text.trim(); }), options];";
+  private static final String SELECT_JS =
+    "var el = arguments[0]; el.selectedIndex = arguments[1];"
+    + "el.dispatchEvent(new Event('input', { bubbles: true }));"
+    + "el.dispatchEvent(new Event('change', { bubbles: true }));";
+
+  // Select through script instead of clicking the option
+  private static volatile boolean _jsSelect = Boolean.getBoolean("listbox.jsSelect");
+
+  // Option text to index, built once for each resolved select element on this thread
+  private static final ThreadLocal<Map<ListBox, OptionIndex>> _indexes = new ThreadLocal<Map<ListBox, OptionIndex>>()
+  {
+    @Override
+    protected Map<ListBox, OptionIndex> initialValue()
+    {
+      return new HashMap<ListBox, OptionIndex>();
+    }
+  };
+
+  public ListBox(String name, By locator)
+  {
+    super(name, locator);
+  }
+
+  public static void setJsSelect(boolean jsSelect)
+  {
+    _jsSelect = jsSelect;
+  }
+
+  public void selectByVisibleText(String text)
+  {
+    act("select", "Selected '" + text + "' in " + getName(), element ->
+    {
+      Integer index = indexOf(element, text);
+      if (index == null)
+      {
+        try
+        {
+          new Select(element).selectByVisibleText(text);
+        }
+        catch (NoSuchElementException e)
+        {
+          // The options were just read, a missing option is a data error and retrying won't find it
+          throw new IllegalArgumentException("No option '" + text + "' in " + getName(), e);
+        }
+      }
+      else if (_jsSelect)
+      {
+        ((JavascriptExecutor) getDriver()).executeScript(SELECT_JS, element, index);
+      }
+      else
+      {
+        // The index script already returned the option, the click is the only round trip
+        _indexes.get().get(this).options.get(index).click();
+      }
+      return null;
+    });
+  }
+
+  private Integer indexOf(WebElement element, String text)
+  {
+    OptionIndex index = _indexes.get().get(this);
+    if (index != null && index.element == element)
+    {
+      Integer position = index.positions.get(text);
+      if (position != null)
+      {
+        return position;
+      }
+      // Options may have been loaded after the index was built
+    }
+
+    List<?> options = (List<?>) ((JavascriptExecutor) getDriver()).executeScript(OPTIONS_JS, element);
+    index = new OptionIndex(element, (List<?>) options.get(0), (List<?>) options.get(1));
+    _indexes.get().put(this, index);
+    return index.positions.get(text);
+  }
+
+  private static final class OptionIndex
+  {
+    final WebElement element;
+    final Map<String, Integer> positions = new HashMap<String, Integer>();
+    final List<WebElement> options = new ArrayList<WebElement>();
+
+    OptionIndex(WebElement element, List<?> texts, List<?> options)
+    {
+      this.element = element;
+      for (Object option : options)
+      {
+        this.options.add((WebElement) option);
+      }
+      for (int i = 0; i < texts.size(); i++)
+      {
+        String text = String.valueOf(texts.get(i));
+        if (!positions.containsKey(text))
+        {
+          positions.put(text, i);
+        }
+      }
+    }
+  }
+}
+
+/* ScriptLocator.java webelement */
+package com.seleniumframework.webelements;
+import org.openqa.selenium.By;
+import com.seleniumframework.core.SmartWait;
+
+// Translates a By into a form the in-page scripts can resolve themselves
+final class ScriptLocator
+{
+  // Resolves [strategy, value] to an element, or null when it isn't in the page
+  static final String RESOLVE_JS = SmartWait.RESOLVE_JS;
+
+  private ScriptLocator()
+  {
+  }
+
+  // Returns null for strategies the scripts can't reproduce (link text and custom By)
+  static String[] of(By locator)
+  {
+    String text = locator.toString();
+    int colon = text.indexOf(": ");
+    if (colon < 0)
+    {
+      return null;
+    }
+
+    String strategy = text.substring(0, colon);
+    String value = text.substring(colon + 2);
+    if (strategy.equals("By.id"))
+    {
+      return new String[] { "id", value };
+    }
+    if (strategy.equals("By.cssSelector"))
+    {
+      return new String[] { "css", value };
+    }
+    if (strategy.equals("By.name"))
+    {
+      return new String[] { "name", value };
+    }
+    if (strategy.equals("By.xpath"))
+    {
+      return new String[] { "xpath", value };
+    }
+    if (strategy.equals("By.tagName"))
+    {
+      return new String[] { "css", value };
+    }
+    if (strategy.equals("By.className"))
+    {
+      return new String[] { "css", "." + value };
+    }
+    return null;
+  }
+}
+
+/* Form.java webelement */
+package com.seleniumframework.webelements;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.openqa.selenium.JavascriptExecutor;
+import com.seleniumframework.core.DriverContext;
+import com.seleniumframework.core.Log;
+import com.seleniumframework.core.Timings;
+
+// Sets every field of a form section in a single script execution.
+// Fields the script can't set, or that fail validation, are retried with the element's own action.
+public class Form
+{
+  private static final String FILL_JS = ScriptLocator.RESOLVE_JS
+    + "var fields = arguments[0], failed = [];"
+    + "for (var i = 0; i < fields.length; i++) {"
+    + "  var f = fields[i], el = f[1] ? __sfResolve(f[1]) : null;"
+    + "  if (!el) { failed.push(i); continue; }"
+    + "  try {"
+    + "    if (f[0] === 'text') {"
+    + "      el.focus(); el.value = f[2];"
+    + "      el.dispatchEvent(new Event('input', { bubbles: true }));"
+    + "      el.dispatchEvent(new Event('change', { bubbles: true }));"
+    + "      el.blur();"
+    + "      if (el.value !== f[2] || (el.checkValidity && !el.checkValidity())) failed.push(i);"
+    + "    } else if (f[0] === 'select') {"
+    + "      var match = -1;"
+    + "      for (var o = 0; o < el.options.length; o++) {"
+    + "        if (el.options[o].text.trim() === f[2]) { match = o; break; }"
+    + "      }"
+    + "      if (match < 0) { failed.push(i); continue; }"
+    + "      el.selectedIndex = match;"
+    + "      el.dispatchEvent(new Event('input', { bubbles: true }));"
+    + "      el.dispatchEvent(new Event('change', { bubbles: true }));"
+    + "    } else {"
+    + "      el.click();"
+    + "    }"
+    + "  } catch (e) { failed.push(i); }"
+    + "}"
+    + "return failed;";
+
+  private static final String TEXT = "text";
+  private static final String SELECT = "select";
+  private static final String CLICK = "click";
+
+  private final String _name;
+  private final List<Field> _fields = new ArrayList<Field>();
+
+  public Form(String name)
+  {
+    _name = name;
+  }
+
+  public Form text(TextBox textBox, String text)
+  {
+    _fields.add(new Field(TEXT, textBox, text));
+    return this;
+  }
+
+  public Form select(ListBox listBox, String text)
+  {
+    _fields.add(new Field(SELECT, listBox, text));
+    return this;
+  }
+
+  public Form click(Element element)
+  {
+    _fields.add(new Field(CLICK, element, null));
+    return this;
+  }
+
+  public void submit()
+  {
+    List<Object> args = new ArrayList<Object>();
+    for (Field field : _fields)
+    {
+      // Filled by script without a lookup, so the elements are recorded here
+      field.element.touch();
+      String[] locator = field.element.getScriptLocator();
+      List<Object> arg = new ArrayList<Object>();
+      arg.add(field.kind);
+      arg.add(locator == null ? null : Arrays.asList(locator));
+      arg.add(field.value);
+      args.add(arg);
+    }
+
+    JavascriptExecutor js = (JavascriptExecutor) DriverContext.getDriver();
+    long start = System.nanoTime();
+    List<?> failed = (List<?>) js.executeScript(FILL_JS, args);
+    Timings.recordAction(_name + " form", "fill", System.nanoTime() - start);
+
+    for (int i = 0; i < _fields.size(); i++)
+    {
+      Field field = _fields.get(i);
+      if (failed.contains(Long.valueOf(i)))
+      {
+        Log.info(_name + ": falling back to a direct action for " + field.element.getName());
+        field.apply();
+      }
+      else
+      {
+        Log.pass(field.describe());
+      }
+    }
+  }
+
+  private static final class Field
+  {
+    final String kind;
+    final Element element;
+    final String value;
+
+    Field(String kind, Element element, String value)
+    {
+      this.kind = kind;
+      this.element = element;
+      this.value = value;
+    }
+
+    void apply()
+    {
+      if (kind.equals(TEXT))
+      {
+        ((TextBox) element).setText(value);
+      }
+      else if (kind.equals(SELECT))
+      {
+        ((ListBox) element).selectByVisibleText(value);
+      }
+      else
+      {
+        element.click();
+      }
+    }
+
+    String describe()
+    {
+      if (kind.equals(TEXT))
+      {
+        return "Entered '" + value + "' in " + element.getName();
+      }
+      if (kind.equals(SELECT))
       {
-        return DataTable.getCellValue("EmailSuccess", 1);
+        return "Selected '" + value + "' in " + element.getName();
       }
+      return "Clicked " + element.getName();
     }
   }
 }